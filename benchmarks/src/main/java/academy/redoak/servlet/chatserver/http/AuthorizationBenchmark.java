@@ -0,0 +1,91 @@
+package academy.redoak.servlet.chatserver.http;
+
+import academy.redoak.servlet.chatserver.http.chat.ChatServlet;
+import academy.redoak.servlet.chatserver.model.User;
+import academy.redoak.servlet.chatserver.service.AuthService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.lang.reflect.Proxy;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link AbstractChatRoomServlet#getAuthorizedUser(HttpServletRequest)}, which every request
+ * passes, with given number of registered users.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AuthorizationBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    private int users;
+
+    private AbstractChatRoomServlet servlet;
+    private AuthRequest[] requests;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        AuthService authService = AuthService.getInstance();
+        servlet = new ChatServlet();
+        requests = new AuthRequest[users];
+        for (int i = 0; i < users; i++) {
+            User user = authService.register("user" + i);
+            requests[i] = new AuthRequest(user.getId());
+        }
+    }
+
+    @Benchmark
+    public Optional<User> getAuthorizedUser() {
+        next = next + 1 < requests.length ? next + 1 : 0;
+        return servlet.getAuthorizedUser(requests[next]);
+    }
+
+    @Benchmark
+    public Optional<User> getUnknownUser() {
+        return servlet.getAuthorizedUser(requests[0].unknown);
+    }
+
+    /**
+     * Request only offering the <code>auth</code> header, anything else fails.
+     */
+    private static final class AuthRequest extends HttpServletRequestWrapper {
+
+        private static final HttpServletRequest UNSUPPORTED = (HttpServletRequest) Proxy.newProxyInstance(
+                AuthRequest.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        private final String auth;
+        private AuthRequest unknown;
+
+        AuthRequest(String auth) {
+            super(UNSUPPORTED);
+            this.auth = auth;
+            if (!auth.isEmpty()) {
+                this.unknown = new AuthRequest("");
+            }
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return "auth".equals(name) ? auth : null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package academy.redoak.servlet.chatserver.http.chat;
+
+import academy.redoak.servlet.chatserver.model.ChatRoom;
+import academy.redoak.servlet.chatserver.model.Message;
+import academy.redoak.servlet.chatserver.model.User;
+import academy.redoak.servlet.chatserver.service.AuthService;
+import academy.redoak.servlet.chatserver.service.ChatRoomService;
+import academy.redoak.servlet.chatserver.util.Mapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building the JSON of a room with given number of messages, as done for a GET on a room: mapping it by
+ * {@link ChatServlet#toJson(ChatRoom, List)} and writing it by {@link Mapper#getAsJson}. Both, a default page of
+ * 100 messages and all messages, are measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChatServletBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    private int messages;
+
+    private ChatRoom chatRoom;
+
+    @Setup
+    public void setUp() {
+        User user = AuthService.getInstance().register("Benjamin");
+        chatRoom = ChatRoomService.getInstance().addChatRoom("Group A");
+        for (int i = 0; i < messages; i++) {
+            chatRoom.postMessage(user, "Message number " + i + " of the benchmark");
+        }
+    }
+
+    @Benchmark
+    public RoomJson toJson() {
+        return ChatServlet.toJson(chatRoom, chatRoom.getMessages());
+    }
+
+    @Benchmark
+    public String getAsJsonPage() throws JsonProcessingException {
+        long last = chatRoom.getMessageLog().lastSequence();
+        return Mapper.getAsJson(response(chatRoom.getMessageLog().range(last - 99, last)));
+    }
+
+    @Benchmark
+    public String getAsJsonAll() throws JsonProcessingException {
+        return Mapper.getAsJson(response(chatRoom.getMessages()));
+    }
+
+    private SingleRoomResponse response(List<Message> page) {
+        SingleRoomResponse response = new SingleRoomResponse();
+        response.setRoom(ChatServlet.toJson(chatRoom, page));
+        return response;
+    }
+}
@@ -0,0 +1,65 @@
+package academy.redoak.servlet.chatserver.service;
+
+import academy.redoak.servlet.chatserver.model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link AuthService#register(String)} with given number of users registered before. Every
+ * parameter value runs in a fork of its own, so the singleton starts empty.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AuthServiceBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    private int users;
+
+    private AuthService authService;
+    private String[] names;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        authService = AuthService.getInstance();
+        names = new String[users];
+        for (int i = 0; i < users; i++) {
+            names[i] = "user" + i;
+            authService.register(names[i]);
+        }
+    }
+
+    /**
+     * Registers a name already taken, which only looks up the existing user.
+     */
+    @Benchmark
+    public User registerExisting() {
+        next = next + 1 < names.length ? next + 1 : 0;
+        return authService.register(names[next]);
+    }
+
+    /**
+     * Registers a new user and unregisters it again, so the number of users stays the same.
+     */
+    @Benchmark
+    public User registerNew() {
+        User user = authService.register("new user");
+        authService.unregister(user);
+        return user;
+    }
+}
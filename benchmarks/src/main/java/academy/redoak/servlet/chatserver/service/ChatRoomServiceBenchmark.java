@@ -0,0 +1,56 @@
+package academy.redoak.servlet.chatserver.service;
+
+import academy.redoak.servlet.chatserver.model.ChatRoom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link ChatRoomService#getChatRoom(String)} with given number of rooms.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChatRoomServiceBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    private int rooms;
+
+    private ChatRoomService chatRoomService;
+    private String[] ids;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        chatRoomService = ChatRoomService.getInstance();
+        ids = new String[rooms];
+        for (int i = 0; i < rooms; i++) {
+            ids[i] = chatRoomService.addChatRoom("room" + i).getId();
+        }
+    }
+
+    @Benchmark
+    public Optional<ChatRoom> getChatRoom() {
+        next = next + 1 < ids.length ? next + 1 : 0;
+        return chatRoomService.getChatRoom(ids[next]);
+    }
+
+    @Benchmark
+    public Optional<ChatRoom> getUnknownChatRoom() {
+        return chatRoomService.getChatRoom("00000000-0000-0000-0000-000000000000");
+    }
+}
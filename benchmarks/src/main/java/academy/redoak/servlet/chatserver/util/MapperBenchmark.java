@@ -0,0 +1,56 @@
+package academy.redoak.servlet.chatserver.util;
+
+import academy.redoak.servlet.chatserver.http.chat.RoomJson;
+import academy.redoak.servlet.chatserver.http.chat.RoomListResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link Mapper#getAsJson} for the room list with given number of rooms.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MapperBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    private int rooms;
+
+    private RoomListResponse response;
+
+    @Setup
+    public void setUp() {
+        List<RoomJson> list = new ArrayList<>(rooms);
+        for (int i = 0; i < rooms; i++) {
+            RoomJson room = new RoomJson();
+            room.setId(UUID.randomUUID().toString());
+            room.setName("Room " + i);
+            list.add(room);
+        }
+        response = new RoomListResponse();
+        response.setRooms(list);
+    }
+
+    @Benchmark
+    public String getAsJson() throws JsonProcessingException {
+        return Mapper.getAsJson(response);
+    }
+}
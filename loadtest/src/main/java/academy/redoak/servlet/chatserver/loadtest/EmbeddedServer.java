@@ -0,0 +1,113 @@
+package academy.redoak.servlet.chatserver.loadtest;
+
+import academy.redoak.servlet.chatserver.http.auth.AuthenticationServlet;
+import academy.redoak.servlet.chatserver.http.chat.ChatServlet;
+import academy.redoak.servlet.chatserver.metrics.MetricsFilter;
+import academy.redoak.servlet.chatserver.metrics.MetricsServlet;
+import academy.redoak.servlet.chatserver.persistence.PersistenceListener;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+
+import javax.servlet.Servlet;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Embedded Tomcat serving the real servlets of the chat server on a random local port. The servlets are registered
+ * programmatically, so no web archive is needed. <br/>
+ * Like a deployed server, it records request metrics and serves them on <code>/metrics</code>. Optionally, the
+ * {@link PersistenceListener} is registered, too, writing its log into a temporary directory. <br/>
+ * The servlets handling users and rooms may run on virtual threads, see the init parameter
+ * <code>virtualThreads</code> of {@link academy.redoak.servlet.chatserver.http.AbstractChatRoomServlet}.
+ */
+final class EmbeddedServer {
+
+    private final Tomcat tomcat;
+
+    private EmbeddedServer(Tomcat tomcat) {
+        this.tomcat = tomcat;
+    }
+
+    /**
+     * @param persistence Whether to journal all changes like a deployed server does.
+     * @param virtualThreads Whether to handle users and rooms on virtual threads.
+     * @param maxThreads The size of the connector's thread pool.
+     * @param maxConnections The maximum number of open connections.
+     * @return The started server.
+     */
+    static EmbeddedServer start(boolean persistence, boolean virtualThreads, int maxThreads, int maxConnections)
+            throws IOException, LifecycleException {
+        Path baseDir = Files.createTempDirectory("chatserver-loadtest");
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.toString());
+        tomcat.setPort(0);
+        Connector connector = tomcat.getConnector();
+        connector.setProperty("maxThreads", Integer.toString(maxThreads));
+        connector.setProperty("maxConnections", Integer.toString(maxConnections));
+        // lets many clients connect at once
+        connector.setProperty("acceptCount", "1000");
+
+        Context context = tomcat.addContext("", baseDir.toString());
+        // the context is never reloaded, so there are no leaks to clear on stopping, which needs opened modules
+        StandardContext standardContext = (StandardContext) context;
+        standardContext.setClearReferencesObjectStreamClassCaches(false);
+        standardContext.setClearReferencesRmiTargets(false);
+        standardContext.setClearReferencesThreadLocals(false);
+        if (persistence) {
+            context.addParameter("walDirectory", baseDir.resolve("wal").toString());
+            context.addApplicationListener(PersistenceListener.class.getName());
+        }
+        Wrapper users = addServlet(context, "users", new AuthenticationServlet(), "/users");
+        Wrapper rooms = addServlet(context, "rooms", new ChatServlet(), "/rooms/*");
+        if (virtualThreads) {
+            users.addInitParameter("virtualThreads", "true");
+            rooms.addInitParameter("virtualThreads", "true");
+        }
+        addServlet(context, "metrics", new MetricsServlet(), "/metrics");
+        addMetricsFilter(context, "/users", "/rooms/*");
+
+        tomcat.start();
+        return new EmbeddedServer(tomcat);
+    }
+
+    private static Wrapper addServlet(Context context, String name, Servlet servlet, String pattern) {
+        Wrapper wrapper = Tomcat.addServlet(context, name, servlet);
+        wrapper.setAsyncSupported(true);
+        context.addServletMappingDecoded(pattern, name);
+        return wrapper;
+    }
+
+    private static void addMetricsFilter(Context context, String... patterns) {
+        FilterDef filterDef = new FilterDef();
+        filterDef.setFilterName("metrics");
+        filterDef.setFilter(new MetricsFilter());
+        filterDef.setAsyncSupported("true");
+        context.addFilterDef(filterDef);
+        FilterMap filterMap = new FilterMap();
+        filterMap.setFilterName("metrics");
+        for (String pattern : patterns) {
+            filterMap.addURLPatternDecoded(pattern);
+        }
+        context.addFilterMap(filterMap);
+    }
+
+    /**
+     * @return The URI of the root context.
+     */
+    URI getBaseUri() {
+        return URI.create("http://localhost:" + tomcat.getConnector().getLocalPort());
+    }
+
+    void stop() throws LifecycleException {
+        tomcat.stop();
+        tomcat.destroy();
+    }
+}
@@ -0,0 +1,382 @@
+package academy.redoak.servlet.chatserver.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load generator simulating users posting to and reading from chat rooms over HTTP. By default, the servlets are
+ * started in an {@link EmbeddedServer}, so every run starts from the same state. <br/>
+ * First, the users and rooms are created. Then every thread repeatedly picks a random user and room and either
+ * posts a message to <code>/rooms/{id}/messages</code> or reads the messages after its cursor of that room from
+ * there. The latencies are recorded in HDR histograms, apart from a warmup phase. <br/>
+ * Without a rate, every thread sends its next request right after the response (closed loop). With a rate, requests
+ * are sent on a fixed schedule and latencies are measured from the scheduled time, so a stalled server is not
+ * hidden by requests never sent meanwhile (coordinated omission). <br/>
+ * Slow clients may keep requests of the server busy meanwhile, see {@link SlowClients}, e.g. for comparing the
+ * container's thread pool to virtual threads. For the embedded server, the threads and memory of the process are
+ * reported, too. Note that the embedded server and its clients share the limit of open files. <br/>
+ * Options are given as <code>--name=value</code>:
+ * <code>
+ *     users        number of users (default 100)
+ *     rooms        number of rooms (default 10)
+ *     threads      number of concurrent requests (default 32)
+ *     writeRatio   share of requests posting a message, between 0 and 1 (default 0.2)
+ *     rate         requests per second of all threads, 0 for a closed loop (default 0)
+ *     duration     seconds of measuring (default 30)
+ *     warmup       seconds before measuring (default 5)
+ *     limit        maximum number of messages per read (default 100)
+ *     pollTimeout  milliseconds a read waits for new messages, 0 for answering right away (default 0)
+ *     persistence  whether the embedded server journals all changes (default false)
+ *     virtualThreads  whether the embedded server handles users and rooms on virtual threads (default false)
+ *     maxThreads   size of the thread pool of the embedded server (default 200)
+ *     slowClients  number of connections posting their bodies slowly besides the threads (default 0)
+ *     slowInterval milliseconds between two bytes of the bodies of slow clients (default 100)
+ *     target       URI of a running server instead of the embedded one, e.g. http://localhost:8080/chatserver
+ *     output       directory for the percentile distributions of the histograms, e.g. for plotting them
+ * </code>
+ * Example: <code>gradle :loadtest:run --args="--users=1000 --rooms=50 --writeRatio=0.1"</code>
+ */
+public final class LoadTest {
+
+    private static final Pattern NEXT_CURSOR = Pattern.compile("\"next_cursor\":(\\d+)");
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final Map<String, String> options;
+    private final URI base;
+    private final boolean embedded;
+    private final HttpClient client;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final int threads;
+    private final double writeRatio;
+    private final double rate;
+    private final int limit;
+    private final int pollTimeout;
+
+    private String[] users;
+    private String[] rooms;
+
+    private LoadTest(Map<String, String> options, URI base, boolean embedded) {
+        this.options = options;
+        this.base = base;
+        this.embedded = embedded;
+        this.threads = intOption("threads", 32);
+        this.writeRatio = Double.parseDouble(options.getOrDefault("writeRatio", "0.2"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        this.limit = intOption("limit", 100);
+        this.pollTimeout = intOption("pollTimeout", 0);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Options must be given as --name=value, but got " + arg);
+            }
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        Logger.getLogger("org.apache").setLevel(Level.WARNING);
+
+        EmbeddedServer server = null;
+        URI base;
+        if (options.containsKey("target")) {
+            base = URI.create(options.get("target"));
+        } else {
+            int connections = Integer.parseInt(options.getOrDefault("slowClients", "0"))
+                    + Integer.parseInt(options.getOrDefault("threads", "32")) + 1000;
+            server = EmbeddedServer.start(Boolean.parseBoolean(options.get("persistence")),
+                    Boolean.parseBoolean(options.get("virtualThreads")),
+                    Integer.parseInt(options.getOrDefault("maxThreads", "200")), connections);
+            base = server.getBaseUri();
+        }
+        try {
+            new LoadTest(options, base, server != null).run();
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        int userCount = intOption("users", 100);
+        int roomCount = intOption("rooms", 10);
+        long warmup = TimeUnit.SECONDS.toNanos(intOption("warmup", 5));
+        long duration = TimeUnit.SECONDS.toNanos(intOption("duration", 30));
+
+        System.out.printf("Creating %d users and %d rooms at %s%n", userCount, roomCount, base);
+        String setupRun = Long.toString(System.currentTimeMillis(), 36);
+        users = new String[userCount];
+        for (int i = 0; i < userCount; i++) {
+            users[i] = create("/users", null, "user-" + setupRun + "-" + i).get("user").get("id").asText();
+        }
+        rooms = new String[roomCount];
+        for (int i = 0; i < roomCount; i++) {
+            rooms[i] = create("/rooms", users[0], "room-" + setupRun + "-" + i).get("room").get("id").asText();
+        }
+
+        int slowCount = intOption("slowClients", 0);
+        SlowClients slowClients = null;
+        if (slowCount > 0) {
+            slowClients = new SlowClients(base, rooms[0], users[0], slowCount, intOption("slowInterval", 100));
+            slowClients.start();
+            System.out.printf("Opened %d slow connections%n", slowCount);
+        }
+
+        System.out.printf("Running %d threads with %.0f%% writes, %s, %d s warmup and %d s measuring%n", threads,
+                writeRatio * 100, rate > 0 ? String.format("%.0f requests/s", rate) : "closed loop",
+                TimeUnit.NANOSECONDS.toSeconds(warmup), TimeUnit.NANOSECONDS.toSeconds(duration));
+        long start = System.nanoTime();
+        long measureFrom = start + warmup;
+        long end = measureFrom + duration;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Worker>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * threads / rate) : 0;
+            // spreads the scheduled requests of the threads evenly
+            Worker worker = new Worker(start + interval * i / threads, interval, measureFrom, end);
+            futures.add(executor.submit(worker, worker));
+        }
+        Worker total = new Worker(0, 0, 0, 0);
+        for (Future<Worker> future : futures) {
+            total.add(future.get());
+        }
+        executor.shutdown();
+        report(total, duration);
+        if (embedded) {
+            reportProcess();
+        }
+        if (slowClients != null) {
+            slowClients.stop();
+            System.out.printf("slow   %10d completed, %d failed%n", slowClients.getCompleted(),
+                    slowClients.getFailed());
+        }
+    }
+
+    /**
+     * Reports the platform threads and memory of this process, while slow clients are still connected. Virtual
+     * threads are not counted as threads, their stacks are part of the heap.
+     */
+    private static void reportProcess() throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        memory.gc();
+        String rss = "unknown";
+        Path status = Paths.get("/proc/self/status");
+        if (Files.exists(status)) {
+            for (String line : Files.readAllLines(status, StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    rss = String.format("%.1f MB", Long.parseLong(line.replaceAll("\\D", "")) / 1024.0);
+                }
+            }
+        }
+        System.out.printf("process    %d threads (peak %d), %.1f MB heap after GC, %s resident%n",
+                threads.getThreadCount(), threads.getPeakThreadCount(),
+                memory.getHeapMemoryUsage().getUsed() / 1048576.0, rss);
+    }
+
+    private JsonNode create(String path, String auth, String name) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(base.resolve(base.getPath() + path))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"name\":\"" + name + "\"}"));
+        if (auth != null) {
+            request.header("auth", auth);
+        }
+        HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("POST " + path + " failed with " + response.statusCode() + ": "
+                    + response.body());
+        }
+        return mapper.readTree(response.body());
+    }
+
+    private void report(Worker total, long duration) throws IOException {
+        double seconds = duration / 1e9;
+        PrintStream out = System.out;
+        out.printf("%n%-6s %10s %12s %8s %10s %10s %10s %10s %10s%n", "op", "count", "requests/s", "errors",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        Histogram all = total.reads.copy();
+        all.add(total.writes);
+        report(out, "read", total.reads, total.readErrors, seconds);
+        report(out, "write", total.writes, total.writeErrors, seconds);
+        report(out, "total", all, total.readErrors + total.writeErrors, seconds);
+
+        String output = options.get("output");
+        if (output != null) {
+            Path directory = Paths.get(output);
+            Files.createDirectories(directory);
+            writeDistribution(directory.resolve("read.hgrm"), total.reads);
+            writeDistribution(directory.resolve("write.hgrm"), total.writes);
+            writeDistribution(directory.resolve("total.hgrm"), all);
+            out.println("Wrote percentile distributions to " + directory.toAbsolutePath());
+        }
+    }
+
+    private static void report(PrintStream out, String name, Histogram histogram, long errors, double seconds) {
+        out.printf("%-6s %10d %12.1f %8d %10.3f %10.3f %10.3f %10.3f %10.3f%n", name, histogram.getTotalCount(),
+                histogram.getTotalCount() / seconds, errors,
+                histogram.getValueAtPercentile(50) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(90) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(99) / NANOS_PER_MILLI,
+                histogram.getValueAtPercentile(99.9) / NANOS_PER_MILLI,
+                histogram.getMaxValue() / NANOS_PER_MILLI);
+    }
+
+    private static void writeDistribution(Path file, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file), false, "UTF-8")) {
+            // in milliseconds, as expected by the HdrHistogram plotter
+            histogram.outputPercentileDistribution(out, NANOS_PER_MILLI);
+        }
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    /**
+     * Sends requests from a single thread and records their latencies in histograms of its own, which are merged
+     * after the run.
+     */
+    private final class Worker implements Runnable {
+
+        private final long firstSend;
+        private final long interval;
+        private final long measureFrom;
+        private final long end;
+
+        private final Histogram reads = new Histogram(3);
+        private final Histogram writes = new Histogram(3);
+        private long readErrors;
+        private long writeErrors;
+
+        Worker(long firstSend, long interval, long measureFrom, long end) {
+            this.firstSend = firstSend;
+            this.interval = interval;
+            this.measureFrom = measureFrom;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long[] cursors = new long[rooms.length];
+            long sent = 0;
+            while (true) {
+                long start;
+                if (interval > 0) {
+                    long scheduled = firstSend + interval * sent++;
+                    long wait = scheduled - System.nanoTime();
+                    if (wait > 0) {
+                        sleep(wait);
+                    }
+                    start = scheduled;
+                } else {
+                    start = System.nanoTime();
+                }
+                if (start >= end) {
+                    return;
+                }
+                int room = random.nextInt(rooms.length);
+                String user = users[random.nextInt(users.length)];
+                boolean write = random.nextDouble() < writeRatio;
+                boolean failed;
+                try {
+                    failed = write ? !post(user, room, random) : !read(user, room, cursors);
+                } catch (IOException e) {
+                    failed = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long latency = System.nanoTime() - start;
+                if (start >= measureFrom) {
+                    if (failed) {
+                        if (write) {
+                            writeErrors++;
+                        } else {
+                            readErrors++;
+                        }
+                    } else {
+                        (write ? writes : reads).recordValue(latency);
+                    }
+                }
+            }
+        }
+
+        private boolean post(String user, int room, ThreadLocalRandom random) throws IOException, InterruptedException {
+            HttpRequest request = HttpRequest.newBuilder(uri("/rooms/" + rooms[room] + "/messages?lean=true"))
+                    .header("auth", user)
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "{\"message\":\"Message " + random.nextInt(1_000_000) + " of the load test\"}"))
+                    .build();
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        }
+
+        private boolean read(String user, int room, long[] cursors) throws IOException, InterruptedException {
+            HttpRequest request = HttpRequest.newBuilder(uri("/rooms/" + rooms[room] + "/messages?since="
+                    + cursors[room] + "&limit=" + limit + "&timeout=" + pollTimeout))
+                    .header("auth", user)
+                    .GET()
+                    .build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            Matcher cursor = NEXT_CURSOR.matcher(response.body());
+            if (cursor.find()) {
+                cursors[room] = Long.parseLong(cursor.group(1));
+            }
+            return response.statusCode() == 200;
+        }
+
+        private URI uri(String path) {
+            return base.resolve(base.getPath() + path);
+        }
+
+        private void sleep(long nanos) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void add(Worker other) {
+            reads.add(other.reads);
+            writes.add(other.writes);
+            readErrors += other.readErrors;
+            writeErrors += other.writeErrors;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package academy.redoak.servlet.chatserver.loadtest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clients posting messages so slowly, that every one of them keeps a request of the server busy all the time. The
+ * headers are sent at once, but the body trickles in one byte per interval, so the servlet blocks while reading it.
+ * <br/>
+ * All connections are driven by a single thread with non-blocking channels, so thousands of them barely load the
+ * client. After a response arrived, the connection is closed and a new one is opened.
+ */
+final class SlowClients {
+
+    private final InetSocketAddress address;
+    private final byte[] request;
+    private final int headerLength;
+    private final long interval;
+    private final SocketChannel[] channels;
+    private final int[] sent;
+    private final ByteBuffer response = ByteBuffer.allocate(8192);
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Thread thread = new Thread(this::run, "slow-clients");
+    private volatile boolean running = true;
+
+    /**
+     * @param base The URI of the server.
+     * @param room The id of the room to post to.
+     * @param user The id of the posting user.
+     * @param count The number of connections.
+     * @param interval The milliseconds between two bytes of a body.
+     */
+    SlowClients(URI base, String room, String user, int count, long interval) {
+        this.address = new InetSocketAddress(base.getHost(), base.getPort());
+        byte[] body = "{\"message\":\"Slowly sent message of the load test\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] headers = ("POST " + base.getPath() + "/rooms/" + room + "/messages?lean=true HTTP/1.1\r\n"
+                + "Host: " + base.getHost() + ":" + base.getPort() + "\r\n"
+                + "auth: " + user + "\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        this.request = new byte[headers.length + body.length];
+        System.arraycopy(headers, 0, request, 0, headers.length);
+        System.arraycopy(body, 0, request, headers.length, body.length);
+        this.headerLength = headers.length;
+        this.interval = interval;
+        this.channels = new SocketChannel[count];
+        this.sent = new int[count];
+    }
+
+    /**
+     * Opens all connections, sends their headers and starts sending the bodies.
+     */
+    void start() throws IOException {
+        for (int i = 0; i < channels.length; i++) {
+            // sends a part of the body right away, which spreads the completions over time
+            open(i, headerLength + i % (request.length - headerLength));
+        }
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (running) {
+            long tick = System.nanoTime();
+            for (int i = 0; i < channels.length; i++) {
+                try {
+                    advance(i);
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    reopen(i);
+                }
+            }
+            long wait = TimeUnit.MILLISECONDS.toNanos(interval) - (System.nanoTime() - tick);
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void advance(int i) throws IOException {
+        SocketChannel channel = channels[i];
+        if (sent[i] < request.length) {
+            sent[i] += channel.write(ByteBuffer.wrap(request, sent[i], 1));
+            return;
+        }
+        response.clear();
+        int read = channel.read(response);
+        if (read > 0) {
+            completed.incrementAndGet();
+            reopen(i);
+        } else if (read < 0) {
+            failed.incrementAndGet();
+            reopen(i);
+        }
+    }
+
+    private void reopen(int i) {
+        try {
+            channels[i].close();
+            open(i, headerLength);
+        } catch (IOException e) {
+            // retried with the next tick
+            failed.incrementAndGet();
+        }
+    }
+
+    private void open(int i, int length) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        channel.write(ByteBuffer.wrap(request, 0, length));
+        channel.configureBlocking(false);
+        channels[i] = channel;
+        sent[i] = length;
+    }
+
+    /**
+     * Stops sending and closes all connections.
+     */
+    void stop() throws InterruptedException {
+        running = false;
+        thread.join();
+        for (SocketChannel channel : channels) {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    long getCompleted() {
+        return completed.get();
+    }
+
+    long getFailed() {
+        return failed.get();
+    }
+}
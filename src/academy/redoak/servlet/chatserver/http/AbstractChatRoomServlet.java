@@ -2,32 +2,181 @@ package academy.redoak.servlet.chatserver.http;
 
 import academy.redoak.servlet.chatserver.model.User;
 import academy.redoak.servlet.chatserver.service.AuthService;
+import academy.redoak.servlet.chatserver.util.Compression;
 import academy.redoak.servlet.chatserver.util.Mapper;
+import academy.redoak.servlet.chatserver.util.VirtualThreads;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Abstract base {@link HttpServlet} implementation for being extended by specific Servlets. <br/>
  * Offers several convenience methods for printing out the message to the client or retrieving
- * the authenticated user or request body as a string.
+ * the authenticated user or request body as an object. <br/>
+ * The maximum size of request bodies may be configured by the init parameter <code>maxBodySize</code> in bytes
+ * (default 65536). <br/>
+ * Responses may be compressed with <code>gzip</code> or <code>deflate</code> as accepted by the client, by setting the
+ * init parameter <code>compression</code> to <code>true</code>. Only bodies larger than <code>compressionThreshold</code>
+ * bytes (default 1024) are compressed. <br/>
+ * Setting the init parameter <code>virtualThreads</code> to <code>true</code> handles every request on a virtual
+ * thread of its own instead of a container thread, if the JVM supports them (Java 21 or newer). Reading slowly sent
+ * bodies and writing to slowly reading clients then blocks cheap virtual threads, while the container's pool keeps
+ * serving. The request is put into asynchronous mode for that, so the servlet must support it. Servlets starting
+ * asynchronous processing on their own still may, see {@link OffloadedRequest}.
  */
 public abstract class AbstractChatRoomServlet extends HttpServlet {
 
     private AuthService authService = AuthService.getInstance();
 
+    private long maxBodySize;
+    private boolean compression;
+    private int compressionThreshold;
+    private ExecutorService executor;
+
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        maxBodySize = getIntInitParameter("maxBodySize", 65536);
+        compression = Boolean.parseBoolean(getInitParameter("compression"));
+        compressionThreshold = getIntInitParameter("compressionThreshold", 1024);
+        if (Boolean.parseBoolean(getInitParameter("virtualThreads"))) {
+            executor = VirtualThreads.newPerTaskExecutor().orElse(null);
+            if (executor == null) {
+                log("Virtual threads are not supported by this JVM, handling requests on container threads");
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        super.destroy();
+    }
+
+    /**
+     * Negotiates the content coding, if compression is enabled. Requests whose responses may be compressed are
+     * handled with a {@link CompressibleResponse}. Asynchronous requests must hand that one over to
+     * {@link HttpServletRequest#startAsync(javax.servlet.ServletRequest, javax.servlet.ServletResponse)} for
+     * keeping compression. <br/>
+     * With virtual threads enabled, requests are handed over to them afterwards.
+     */
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        if (compression) {
+            resp.addHeader("Vary", "Accept-Encoding");
+            String encoding = Compression.negotiate(req.getHeader("Accept-Encoding"));
+            if (encoding != null) {
+                resp = new CompressibleResponse(resp, encoding, compressionThreshold);
+            }
+        }
+        if (executor != null && req.getDispatcherType() == DispatcherType.REQUEST && req.isAsyncSupported()) {
+            offload(req, resp);
+        } else {
+            super.service(req, resp);
+        }
+    }
+
     /**
-     * Reads all lines from {@link HttpServletRequest#getReader()} and retrieves them as a string object.
+     * Puts given request into asynchronous mode and handles it on a virtual thread. The request is completed once
+     * handled, unless the servlet started asynchronous processing on its own.
+     */
+    private void offload(HttpServletRequest req, HttpServletResponse resp) {
+        AsyncContext context = req.startAsync(req, resp);
+        // the servlet sets a timeout of its own when waiting for something
+        context.setTimeout(0);
+        OffloadedRequest offloaded = new OffloadedRequest(req, context);
+        try {
+            executor.execute(() -> handle(offloaded, resp, context));
+        } catch (RejectedExecutionException e) {
+            // the servlet is being destroyed
+            resp.setStatus(503);
+            context.complete();
+        }
+    }
+
+    private void handle(OffloadedRequest req, HttpServletResponse resp, AsyncContext context) {
+        try {
+            super.service(req, resp);
+        } catch (IOException e) {
+            // mostly clients going away, which the container does not log either
+            if (!resp.isCommitted()) {
+                resp.setStatus(500);
+            }
+        } catch (ServletException | RuntimeException e) {
+            log("Failed to handle " + req.getMethod() + " " + req.getRequestURI(), e);
+            if (!resp.isCommitted()) {
+                resp.setStatus(500);
+            }
+        } finally {
+            if (!req.isAsyncStarted()) {
+                context.complete();
+            }
+        }
+    }
+
+    /**
+     * Reads the request body in JSON format directly from {@link HttpServletRequest#getInputStream()}. Bodies
+     * exceeding the maximum body size are rejected as soon as this is known, without reading them completely.
      *
      * @param req The {@link HttpServletRequest} to read the body from.
-     * @return The request body as a string.
-     * @throws IOException {@link HttpServletRequest#getReader()} may throw.
+     * @param clazz The class of the object being read.
+     * @param <T> The type of clazz.
+     * @return The read object.
+     * @throws RequestTooLargeException If the body exceeds the maximum body size.
+     * @throws IOException {@link HttpServletRequest#getInputStream()} and {@link Mapper#readJson(InputStream, Class)}
+     *      may throw.
+     */
+    protected <T> T readRequestBody(HttpServletRequest req, Class<T> clazz) throws IOException {
+        if (req.getContentLengthLong() > maxBodySize) {
+            throw new RequestTooLargeException(maxBodySize);
+        }
+        return Mapper.readJson(new LimitedInputStream(req.getInputStream(), maxBodySize), clazz);
+    }
+
+    /**
+     * Reads an integer init parameter from the {@link javax.servlet.ServletConfig}.
+     *
+     * @param name The name of the init parameter.
+     * @param defaultValue The value to use, if the parameter is not set.
+     * @return The configured value or given default value.
      */
-    protected String getRequestBody(HttpServletRequest req) throws IOException {
-        return req.getReader().lines().reduce("", (s1, s2) -> s1 + s2);
+    protected int getIntInitParameter(String name, int defaultValue) {
+        String value = getInitParameter(name);
+        return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    /**
+     * Reads an optional query parameter as long value.
+     *
+     * @param req The {@link HttpServletRequest} to read the parameter from.
+     * @param name The name of the query parameter.
+     * @return The parameter value or <code>null</code>, if not given.
+     * @throws IllegalArgumentException If the parameter is no valid number.
+     */
+    protected Long getLongParameter(HttpServletRequest req, String name) {
+        String value = req.getParameter(name);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for query parameter " + name + ": " + value);
+        }
     }
 
     /**
@@ -38,22 +187,58 @@ public abstract class AbstractChatRoomServlet extends HttpServlet {
      *          May be empty, if no valid auth header field value is given.
      */
     protected Optional<User> getAuthorizedUser(HttpServletRequest req) {
-        String auth = req.getHeader("auth").trim();
+        String auth = req.getHeader("auth");
         if (auth != null) {
-            return authService.getUsers().stream()
-                    .filter(user -> user.getId().equals(auth))
-                    .findFirst();
+            return authService.getUser(auth.trim());
         }
         return Optional.empty();
     }
 
     /**
-     * Writes given {@link Response} to {@link HttpServletResponse#getWriter()} and closes it. Sends HTTP 200
+     * Sets given strong entity tag as <code>ETag</code> header and checks it against the <code>If-None-Match</code>
+     * header of the request. On a match, HTTP 304 is sent without a body and the caller must not write a response.
+     * A compressed body gets the tag marked with its content coding when written, which matches as well. <br/>
+     * <code>
+     *     if (notModified(req, resp, etag)) {
+     *         return;
+     *     }
+     * </code>
+     *
+     * @param req The {@link HttpServletRequest} possibly containing an <code>If-None-Match</code> header.
+     * @param resp The {@link HttpServletResponse} for writing the response.
+     * @param etag The entity tag of the current representation, including the quotes.
+     * @return <code>true</code>, if HTTP 304 has been sent.
+     * @throws IOException {@link HttpServletResponse#flushBuffer()} may throw.
+     */
+    protected boolean notModified(HttpServletRequest req, HttpServletResponse resp, String etag) throws IOException {
+        resp.setHeader("ETag", etag);
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String encodedEtag = resp instanceof CompressibleResponse
+                ? ((CompressibleResponse) resp).encodedEtag(etag) : null;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals(encodedEtag)) {
+                if (tag.equals(encodedEtag)) {
+                    resp.setHeader("ETag", encodedEtag);
+                }
+                resp.setStatus(304);
+                resp.flushBuffer();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes given {@link Response} to {@link HttpServletResponse#getOutputStream()} and closes it. Sends HTTP 200
      * status code and writes {@link Status#OK} into {@link Response} object.
      *
      * @param response The {@link Response} to be sent.
      * @param resp The {@link HttpServletResponse} for writing the response.
-     * @throws IOException {@link HttpServletResponse#getWriter()} and {@link Mapper#getAsJson(Response)} may throw.
+     * @throws IOException {@link HttpServletResponse#getOutputStream()} and {@link Mapper#writeJson(Response, OutputStream)} may throw.
      */
     protected void ok(Response response, HttpServletResponse resp) throws IOException {
         response.setStatus(Status.OK);
@@ -61,12 +246,12 @@ public abstract class AbstractChatRoomServlet extends HttpServlet {
     }
 
     /**
-     * Writes given {@link Response} to {@link HttpServletResponse#getWriter()} and closes it. Sends HTTP 401
+     * Writes given {@link Response} to {@link HttpServletResponse#getOutputStream()} and closes it. Sends HTTP 401
      * status code and writes {@link Status#UNAUTHORIZED} and <code>error_message="Unauthorized"</code> into {@link Response} object.
      *
      * @param response The {@link Response} to be sent.
      * @param resp The {@link HttpServletResponse} for writing the response.
-     * @throws IOException {@link HttpServletResponse#getWriter()} and {@link Mapper#getAsJson(Response)} may throw.
+     * @throws IOException {@link HttpServletResponse#getOutputStream()} and {@link Mapper#writeJson(Response, OutputStream)} may throw.
      */
     protected void unauthorized(Response response, HttpServletResponse resp) throws IOException {
         response.setStatus(Status.UNAUTHORIZED);
@@ -75,45 +260,140 @@ public abstract class AbstractChatRoomServlet extends HttpServlet {
     }
 
     /**
-     * Writes given {@link Response} to {@link HttpServletResponse#getWriter()} and closes it. Sends HTTP 404
+     * Writes given {@link Response} to {@link HttpServletResponse#getOutputStream()} and closes it. Sends HTTP 404
      * status code and writes {@link Status#FAIL} and <code>error_message="Path not found"</code> into {@link Response} object.
      *
      * @param response The {@link Response} to be sent.
      * @param resp The {@link HttpServletResponse} for writing the response.
-     * @throws IOException {@link HttpServletResponse#getWriter()} and {@link Mapper#getAsJson(Response)} may throw.
+     * @throws IOException {@link HttpServletResponse#getOutputStream()} and {@link Mapper#writeJson(Response, OutputStream)} may throw.
      */
     protected void unknownPath(Response response, HttpServletResponse resp) throws IOException {
         this.writeResponse(response, resp, 404, "Path not found");
     }
 
     /**
-     * Writes given {@link Response} to {@link HttpServletResponse#getWriter()} and closes it. Sends given HTTP
+     * Writes given already serialized response body to {@link HttpServletResponse#getOutputStream()} and closes it.
+     * Sends given HTTP status code.
+     *
+     * @param body The UTF-8 encoded JSON body to be sent.
+     * @param resp The {@link HttpServletResponse} for writing the response.
+     * @param httpStatus The HTTP status code to be written in the HTTP response.
+     * @throws IOException {@link HttpServletResponse#getOutputStream()} may throw.
+     */
+    protected void writeResponse(byte[] body, HttpServletResponse resp, int httpStatus) throws IOException {
+        if (resp instanceof CompressibleResponse && ((CompressibleResponse) resp).shouldCompress(body.length)) {
+            String encoding = ((CompressibleResponse) resp).getEncoding();
+            writeEncoded(Compression.compress(body, encoding), encoding, resp, httpStatus);
+        } else {
+            writeEncoded(body, null, resp, httpStatus);
+        }
+    }
+
+    /**
+     * Writes given {@link CachedResponse} to {@link HttpServletResponse#getOutputStream()} and closes it. Sends given
+     * HTTP status code and the entity tag of the {@link CachedResponse}. A compressed body is taken from the
+     * {@link CachedResponse}, so it is compressed only once.
+     *
+     * @param cached The {@link CachedResponse} to be sent.
+     * @param resp The {@link HttpServletResponse} for writing the response.
+     * @param httpStatus The HTTP status code to be written in the HTTP response.
+     * @throws IOException {@link HttpServletResponse#getOutputStream()} may throw.
+     */
+    protected void writeResponse(CachedResponse cached, HttpServletResponse resp, int httpStatus) throws IOException {
+        resp.setHeader("ETag", cached.getEtag());
+        byte[] body = cached.getBody();
+        if (resp instanceof CompressibleResponse && ((CompressibleResponse) resp).shouldCompress(body.length)) {
+            String encoding = ((CompressibleResponse) resp).getEncoding();
+            writeEncoded(cached.getBody(encoding), encoding, resp, httpStatus);
+        } else {
+            writeEncoded(body, null, resp, httpStatus);
+        }
+    }
+
+    private void writeEncoded(byte[] body, String encoding, HttpServletResponse resp, int httpStatus) throws IOException {
+        resp.setStatus(httpStatus);
+        resp.addHeader("Content-Type", "application/json;charset=utf8");
+        if (encoding != null) {
+            ((CompressibleResponse) resp).setEncoded();
+        }
+        resp.setContentLength(body.length);
+        OutputStream out = resp.getOutputStream();
+        out.write(body);
+        out.close();
+    }
+
+    /**
+     * Writes given {@link Response} to {@link HttpServletResponse#getOutputStream()} and closes it. Sends given HTTP
      * status code. Writes no {@link Status} or <code>error_message</code> to {@link Response} object.
      *
      * @param response The {@link Response} to be sent.
      * @param resp The {@link HttpServletResponse} for writing the response.
      * @param httpStatus The HTTP status code to be written in the HTTP response.
-     * @throws IOException {@link HttpServletResponse#getWriter()} and {@link Mapper#getAsJson(Response)} may throw.
+     * @throws IOException {@link HttpServletResponse#getOutputStream()} and {@link Mapper#writeJson(Response, OutputStream)} may throw.
      */
     protected void writeResponse(Response response, HttpServletResponse resp, int httpStatus) throws IOException {
         writeResponse(response, resp, httpStatus, null);
     }
 
     /**
-     * Writes given {@link Response} to {@link HttpServletResponse#getWriter()} and closes it. Sends given HTTP
+     * Writes given {@link Response} to {@link HttpServletResponse#getOutputStream()} and closes it. Sends given HTTP
      * status code. Writes no {@link Status} to {@link Response} object, but writes given <code>error_message</code>.
      *
      * @param response The {@link Response} to be sent.
      * @param resp The {@link HttpServletResponse} for writing the response.
      * @param httpStatus The HTTP status code to be written in the HTTP response.
      * @param errorMessage The error_message to be written into the {@link Response} object.
-     * @throws IOException {@link HttpServletResponse#getWriter()} and {@link Mapper#getAsJson(Response)} may throw.
+     * @throws IOException {@link HttpServletResponse#getOutputStream()} and {@link Mapper#writeJson(Response, OutputStream)} may throw.
      */
     protected void writeResponse(Response response, HttpServletResponse resp, int httpStatus, String errorMessage) throws IOException {
         response.setErrorMessage(errorMessage);
         resp.setStatus(httpStatus);
         resp.addHeader("Content-Type", "application/json;charset=utf8");
-        resp.getWriter().write(Mapper.getAsJson(response));
-        resp.getWriter().close();
+        if (resp instanceof CompressibleResponse) {
+            Mapper.writeJson(response, ((CompressibleResponse) resp).openBody());
+        } else {
+            Mapper.writeJson(response, resp.getOutputStream());
+        }
+    }
+
+    /**
+     * Stream failing with a {@link RequestTooLargeException} as soon as more than a given number of bytes is read.
+     * Needed for requests without or with a wrong Content-Length header.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                consumed(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                consumed(read);
+            }
+            return read;
+        }
+
+        private void consumed(int bytes) throws RequestTooLargeException {
+            remaining -= bytes;
+            if (remaining < 0) {
+                throw new RequestTooLargeException(limit);
+            }
+        }
     }
 }
@@ -0,0 +1,53 @@
+package academy.redoak.servlet.chatserver.http;
+
+import academy.redoak.servlet.chatserver.util.Compression;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An already serialized response body together with the version of the data it was created from and the matching
+ * entity tag. Immutable, so it may be shared between threads and replaced as a whole, once the data changed. <br/>
+ * Compressed variants of the body are created on first use and kept, so every version is compressed only once per
+ * content coding.
+ */
+public class CachedResponse {
+
+    private final long version;
+    private final String etag;
+    private final byte[] body;
+    private final Map<String, byte[]> encodedBodies = new ConcurrentHashMap<>(4);
+
+    public CachedResponse(long version, String etag, byte[] body) {
+        this.version = version;
+        this.etag = etag;
+        this.body = body;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The strong entity tag of the uncompressed body for the <code>ETag</code> header, including the
+     * quotes. Compressed bodies are sent with the tag marked with their content coding.
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @return The UTF-8 encoded JSON body. Must not be modified.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @param encoding A content coding supported by {@link Compression}.
+     * @return The body compressed with given content coding. Must not be modified.
+     */
+    public byte[] getBody(String encoding) {
+        return encodedBodies.computeIfAbsent(encoding, e -> Compression.compress(body, e));
+    }
+}
@@ -0,0 +1,122 @@
+package academy.redoak.servlet.chatserver.http;
+
+import academy.redoak.servlet.chatserver.util.Compression;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link HttpServletResponse} of a request, whose client accepts a content coding supported by {@link Compression}.
+ * Bodies written by {@link AbstractChatRoomServlet#writeResponse} are compressed, once they exceed the threshold.
+ */
+class CompressibleResponse extends HttpServletResponseWrapper {
+
+    private final String encoding;
+    private final int threshold;
+
+    CompressibleResponse(HttpServletResponse response, String encoding, int threshold) {
+        super(response);
+        this.encoding = encoding;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return The negotiated content coding.
+     */
+    String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @param length The length of a body in bytes.
+     * @return <code>true</code>, if a body of given length should be compressed.
+     */
+    boolean shouldCompress(int length) {
+        return length > threshold;
+    }
+
+    /**
+     * Sets the <code>Content-Encoding</code> header. An <code>ETag</code> header set before is marked with the
+     * content coding, as the compressed body differs from the uncompressed one, which a strong tag must reflect.
+     */
+    void setEncoded() {
+        setHeader("Content-Encoding", encoding);
+        String etag = getHeader("ETag");
+        if (etag != null) {
+            setHeader("ETag", encodedEtag(etag));
+        }
+    }
+
+    /**
+     * @param etag A strong entity tag of the uncompressed body, including the quotes.
+     * @return The entity tag of the body compressed with the negotiated content coding, e.g. <code>"42-gzip"</code>.
+     */
+    String encodedEtag(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    /**
+     * @return A stream buffering the body up to the threshold. Bodies not exceeding it are sent as they are,
+     * including a Content-Length header. Otherwise, the <code>Content-Encoding</code> header is set and everything
+     * is compressed. Must be closed.
+     */
+    OutputStream openBody() {
+        return new ThresholdOutputStream();
+    }
+
+    private final class ThresholdOutputStream extends OutputStream {
+
+        private byte[] buffer = new byte[threshold];
+        private int count;
+        private OutputStream out;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out == null) {
+                if (count + len <= buffer.length) {
+                    System.arraycopy(b, off, buffer, count, len);
+                    count += len;
+                    return;
+                }
+                setEncoded();
+                out = Compression.compressing(getOutputStream(), encoding);
+                out.write(buffer, 0, count);
+                buffer = null;
+            }
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // the buffered part is only written on close, as it may still become compressed
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (out != null) {
+                out.close();
+            } else {
+                setContentLength(count);
+                ServletOutputStream raw = getOutputStream();
+                raw.write(buffer, 0, count);
+                raw.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package academy.redoak.servlet.chatserver.http;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link HttpServletRequest} being handled on a thread of its own, see {@link AbstractChatRoomServlet}. The request
+ * has already been put into asynchronous mode for that, so starting it again returns the existing
+ * {@link AsyncContext}, which is then left open for the servlet to complete. <br/>
+ * Listeners are registered with the container before handing the request over, as containers need not accept them
+ * afterwards. Listeners added by the servlet are collected and called by that one.
+ */
+class OffloadedRequest extends HttpServletRequestWrapper {
+
+    private final AsyncContext context;
+    private final Context facade = new Context();
+    private final List<AsyncListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean asyncStarted;
+
+    /**
+     * @param request The request in asynchronous mode.
+     * @param context The {@link AsyncContext} of the request.
+     */
+    OffloadedRequest(HttpServletRequest request, AsyncContext context) {
+        super(request);
+        this.context = context;
+        context.addListener(new ForwardingListener());
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+        asyncStarted = true;
+        return facade;
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+        return startAsync();
+    }
+
+    @Override
+    public boolean isAsyncStarted() {
+        return asyncStarted;
+    }
+
+    @Override
+    public AsyncContext getAsyncContext() {
+        if (!asyncStarted) {
+            throw new IllegalStateException("Request is not in asynchronous mode");
+        }
+        return facade;
+    }
+
+    /**
+     * The {@link AsyncContext} as seen by the servlet.
+     */
+    private final class Context implements AsyncContext {
+
+        @Override
+        public ServletRequest getRequest() {
+            return OffloadedRequest.this;
+        }
+
+        @Override
+        public ServletResponse getResponse() {
+            return context.getResponse();
+        }
+
+        @Override
+        public boolean hasOriginalRequestAndResponse() {
+            return false;
+        }
+
+        @Override
+        public void dispatch() {
+            context.dispatch();
+        }
+
+        @Override
+        public void dispatch(String path) {
+            context.dispatch(path);
+        }
+
+        @Override
+        public void dispatch(ServletContext servletContext, String path) {
+            context.dispatch(servletContext, path);
+        }
+
+        @Override
+        public void complete() {
+            context.complete();
+        }
+
+        @Override
+        public void start(Runnable run) {
+            context.start(run);
+        }
+
+        @Override
+        public void addListener(AsyncListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void addListener(AsyncListener listener, ServletRequest servletRequest,
+                                ServletResponse servletResponse) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public <T extends AsyncListener> T createListener(Class<T> clazz) throws ServletException {
+            return context.createListener(clazz);
+        }
+
+        @Override
+        public void setTimeout(long timeout) {
+            context.setTimeout(timeout);
+        }
+
+        @Override
+        public long getTimeout() {
+            return context.getTimeout();
+        }
+    }
+
+    private final class ForwardingListener implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            for (AsyncListener listener : listeners) {
+                listener.onComplete(event);
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            for (AsyncListener listener : listeners) {
+                listener.onTimeout(event);
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            for (AsyncListener listener : listeners) {
+                listener.onError(event);
+            }
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // the request is never restarted
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package academy.redoak.servlet.chatserver.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown while reading a request body, which exceeds the configured maximum size.
+ */
+public class RequestTooLargeException extends IOException {
+
+    public RequestTooLargeException(long maxBodySize) {
+        super("Request body exceeds " + maxBodySize + " bytes");
+    }
+}
@@ -1,10 +1,10 @@
 package academy.redoak.servlet.chatserver.http.auth;
 
 import academy.redoak.servlet.chatserver.http.AbstractChatRoomServlet;
+import academy.redoak.servlet.chatserver.http.RequestTooLargeException;
 import academy.redoak.servlet.chatserver.http.Status;
 import academy.redoak.servlet.chatserver.model.User;
 import academy.redoak.servlet.chatserver.service.AuthService;
-import academy.redoak.servlet.chatserver.util.Mapper;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 import javax.servlet.annotation.WebServlet;
@@ -16,7 +16,7 @@ import java.util.Optional;
 /**
  * Servlet endpoint for registering and removing users.
  */
-@WebServlet("/users")
+@WebServlet(value = "/users", asyncSupported = true)
 public class AuthenticationServlet extends AbstractChatRoomServlet {
 
     private AuthService authService = AuthService.getInstance();
@@ -94,8 +94,7 @@ public class AuthenticationServlet extends AbstractChatRoomServlet {
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         AuthResponse response = new AuthResponse();
         try {
-            String requestString = getRequestBody(req);
-            UserJson input = Mapper.getAsObject(requestString, UserJson.class);
+            UserJson input = readRequestBody(req, UserJson.class);
             if(input.getName() == null) {
                 throw new JsonProcessingException("Missing name") {};
             } else {
@@ -107,6 +106,9 @@ public class AuthenticationServlet extends AbstractChatRoomServlet {
         } catch(JsonProcessingException e) {
             writeResponse(response, resp, 400, "Your message s not valid: " + e.getMessage());
             return;
+        } catch (RequestTooLargeException e) {
+            writeResponse(response, resp, 413, e.getMessage());
+            return;
         } catch (Exception up) {
             writeResponse(response, resp, 500, up.getMessage());
             throw up;
@@ -0,0 +1,288 @@
+package academy.redoak.servlet.chatserver.http.chat;
+
+import academy.redoak.servlet.chatserver.http.AbstractChatRoomServlet;
+import academy.redoak.servlet.chatserver.http.Response;
+import academy.redoak.servlet.chatserver.model.ChatRoom;
+import academy.redoak.servlet.chatserver.model.Message;
+import academy.redoak.servlet.chatserver.model.User;
+import academy.redoak.servlet.chatserver.service.AuthService;
+import academy.redoak.servlet.chatserver.service.ChatRoomService;
+import academy.redoak.servlet.chatserver.service.MessageDispatcher;
+import academy.redoak.servlet.chatserver.service.OverflowPolicy;
+import academy.redoak.servlet.chatserver.service.Subscriber;
+import academy.redoak.servlet.chatserver.service.Subscription;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Servlet endpoint streaming the messages of a chat room as
+ * <a href="https://html.spec.whatwg.org/multipage/server-sent-events.html">Server-Sent Events</a>. <br/>
+ * Streams are written with non-blocking servlet I/O, so neither waiting for messages nor slow clients occupy a
+ * container thread. Every stream subscribes to the {@link MessageDispatcher}. The number of messages queued for a
+ * stream (and replayed on reconnect) may be configured by the init parameter <code>queueCapacity</code>
+ * (default 1000), the {@link OverflowPolicy} for slow clients by <code>overflowPolicy</code> (default
+ * <code>DISCONNECT</code>) and the lifetime of a stream by <code>streamTimeout</code> in milliseconds
+ * (default 300000). Clients reconnect after a stream ended.
+ */
+@WebServlet(value = "/events/*", asyncSupported = true)
+public class ChatEventStreamServlet extends AbstractChatRoomServlet {
+
+    private ChatRoomService service = ChatRoomService.getInstance();
+    private AuthService authService = AuthService.getInstance();
+    private MessageDispatcher dispatcher = MessageDispatcher.getInstance();
+
+    private int queueCapacity;
+    private OverflowPolicy overflowPolicy;
+    private int streamTimeout;
+
+    @Override
+    public void init() throws ServletException {
+        queueCapacity = getIntInitParameter("queueCapacity", 1000);
+        String policy = getInitParameter("overflowPolicy");
+        overflowPolicy = policy != null ? OverflowPolicy.valueOf(policy.trim()) : OverflowPolicy.DISCONNECT;
+        streamTimeout = getIntInitParameter("streamTimeout", 300000);
+    }
+
+    /**
+     * <b>
+     *     Requires Authentication! Authenticated user must be declared by
+     *     setting the "auth" header value to the id of the user. As browsers can not set headers on an
+     *     <code>EventSource</code>, the "auth" query parameter is accepted, too.
+     * </b>
+     * <br/>
+     * Handles HTTP GET messages. Path must match following pattern:
+     * <code>/events/{room_id}</code> <br/>
+     * Opens a <code>text/event-stream</code>, which pushes every message posted to the room as event of type
+     * <code>message</code>. The event id is the sequence of the message, the data conforms to the
+     * {@link MessageJson} schema:
+     * <code>
+     *     id: 42
+     *     event: message
+     *     data: {"sequence":42,"timestamp":1586962337000,"username":"Benjamin","message":"Moin"}
+     * </code>
+     * When reconnecting, the messages after the sequence given by the <code>Last-Event-ID</code> header (or
+     * <code>lastEventId</code> query parameter) are replayed first. Without it, only new messages are streamed.
+     * If there are more of them than fit into the queue, or some are evicted already, a <code>resync</code> event
+     * is sent instead. A sequence after the last message of the room is rejected with status 400.
+     * If messages were dropped due to the <code>RESYNC</code> overflow policy, an event of type <code>resync</code>
+     * is sent. Its data is the sequence of the last message sent before, the room has to be read from there.
+     */
+    @Override
+    protected Optional<User> getAuthorizedUser(HttpServletRequest req) {
+        String auth = req.getParameter("auth");
+        if (req.getHeader("auth") == null && auth != null) {
+            return authService.getUser(auth.trim());
+        }
+        return super.getAuthorizedUser(req);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        Response response = new Response();
+        try {
+            Optional<User> authorizedUser = getAuthorizedUser(req);
+            if (!authorizedUser.isPresent()) {
+                unauthorized(response, resp);
+                return;
+            }
+            String pathInfo = req.getPathInfo() != null ? req.getPathInfo() : "/";
+            if (!pathInfo.matches("^/[a-zA-Z0-9\\-]{36}/?$")) {
+                unknownPath(response, resp);
+                return;
+            }
+            Optional<ChatRoom> chatRoom = service.getChatRoom(pathInfo.replace("/", ""));
+            if (!chatRoom.isPresent()) {
+                writeResponse(response, resp, 404, "ChatRoom not found");
+                return;
+            }
+            openStream(req, resp, chatRoom.get());
+        } catch (IllegalArgumentException e) {
+            writeResponse(response, resp, 400, e.getMessage());
+        } catch (Exception up) {
+            writeResponse(response, resp, 500, up.getMessage());
+            throw up;
+        } finally {
+            if (!resp.isCommitted() && !req.isAsyncStarted()) {
+                writeResponse(response, resp, 500, "unknown error, please contact me");
+            }
+        }
+    }
+
+    private void openStream(HttpServletRequest req, HttpServletResponse resp, ChatRoom chatRoom) throws IOException {
+        String header = req.getHeader("Last-Event-ID");
+        Long lastEventId = header != null ? Long.valueOf(header.trim()) : getLongParameter(req, "lastEventId");
+        long last = chatRoom.getMessageLog().lastSequence();
+        if (lastEventId != null && lastEventId > last) {
+            throw new IllegalArgumentException("Last event id is after the last message " + last);
+        }
+
+        resp.setStatus(200);
+        resp.setContentType("text/event-stream;charset=utf-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        AsyncContext context = req.startAsync();
+        context.setTimeout(streamTimeout);
+        EventStream stream = new EventStream(context, resp.getOutputStream());
+        context.addListener(stream);
+        stream.output.setWriteListener(stream);
+        stream.subscribe(dispatcher.subscribe(chatRoom, stream, lastEventId, queueCapacity, overflowPolicy));
+    }
+
+    /**
+     * A single open event stream, receiving its messages from the {@link MessageDispatcher}. Writing happens only
+     * while the output stream is ready; otherwise the container calls {@link #onWritePossible()} as soon as the
+     * client caught up. The dispatcher is told to deliver further messages only after the current ones are
+     * written, so the messages of a slow client pile up in its bounded queue.
+     */
+    private final class EventStream implements Subscriber, WriteListener, AsyncListener {
+
+        private final AsyncContext context;
+        private final ServletOutputStream output;
+        private byte[] pending = "retry: 3000\n\n".getBytes(StandardCharsets.UTF_8);
+        private Runnable done;
+        private boolean flushNeeded;
+        private boolean closed;
+        private Subscription subscription;
+
+        EventStream(AsyncContext context, ServletOutputStream output) {
+            this.context = context;
+            this.output = output;
+        }
+
+        synchronized void subscribe(Subscription subscription) {
+            this.subscription = subscription;
+            if (closed) {
+                subscription.cancel();
+            }
+        }
+
+        /**
+         * Writes pending events as long as the output stream accepts data without blocking. Signals the
+         * dispatcher, once everything is written.
+         */
+        private synchronized void pump() {
+            try {
+                while (!closed && output.isReady()) {
+                    if (pending != null) {
+                        output.write(pending);
+                        pending = null;
+                        flushNeeded = true;
+                    } else if (flushNeeded) {
+                        output.flush();
+                        flushNeeded = false;
+                    } else {
+                        if (done != null) {
+                            Runnable current = done;
+                            done = null;
+                            current.run();
+                        }
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+            }
+        }
+
+        private synchronized void write(byte[] events, Runnable done) {
+            if (pending == null) {
+                pending = events;
+            } else {
+                byte[] joined = Arrays.copyOf(pending, pending.length + events.length);
+                System.arraycopy(events, 0, joined, pending.length, events.length);
+                pending = joined;
+            }
+            this.done = done;
+            pump();
+        }
+
+        private synchronized void close() {
+            if (release()) {
+                context.complete();
+            }
+        }
+
+        /**
+         * @return <code>true</code>, if the stream was open before.
+         */
+        private synchronized boolean release() {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            return true;
+        }
+
+        @Override
+        public void deliver(ChatRoom chatRoom, List<Message> messages, Runnable done) {
+            try {
+                ByteArrayOutputStream events = new ByteArrayOutputStream();
+                for (Message message : messages) {
+                    events.write(("id: " + message.getSequence() + "\nevent: message\ndata: ").getBytes(StandardCharsets.UTF_8));
+                    events.write(MessageJson.fragment(message));
+                    events.write('\n');
+                    events.write('\n');
+                }
+                write(events.toByteArray(), done);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        public void resync(ChatRoom chatRoom, long lastDelivered, Runnable done) {
+            write(("event: resync\ndata: " + lastDelivered + "\n\n").getBytes(StandardCharsets.UTF_8), done);
+        }
+
+        @Override
+        public void disconnect(ChatRoom chatRoom) {
+            close();
+        }
+
+        @Override
+        public void onWritePossible() {
+            pump();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            close();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // nothing to do
+        }
+    }
+}
@@ -1,29 +1,74 @@
 package academy.redoak.servlet.chatserver.http.chat;
 
 import academy.redoak.servlet.chatserver.http.AbstractChatRoomServlet;
+import academy.redoak.servlet.chatserver.http.CachedResponse;
+import academy.redoak.servlet.chatserver.http.RequestTooLargeException;
 import academy.redoak.servlet.chatserver.http.Response;
+import academy.redoak.servlet.chatserver.http.Status;
 import academy.redoak.servlet.chatserver.model.ChatRoom;
 import academy.redoak.servlet.chatserver.model.Message;
+import academy.redoak.servlet.chatserver.model.MessageLog;
 import academy.redoak.servlet.chatserver.model.User;
 import academy.redoak.servlet.chatserver.service.ChatRoomService;
+import academy.redoak.servlet.chatserver.service.MessageDispatcher;
+import academy.redoak.servlet.chatserver.service.OverflowPolicy;
+import academy.redoak.servlet.chatserver.service.Subscriber;
+import academy.redoak.servlet.chatserver.service.Subscription;
 import academy.redoak.servlet.chatserver.util.Mapper;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
- * Servlet endpoint for retrieving, creating chat rooms and corresponding messages.
+ * Servlet endpoint for retrieving, creating chat rooms and corresponding messages. <br/>
+ * Messages of a room are delivered in pages. The size of a page may be configured by the init parameters
+ * <code>defaultPageSize</code> (default 100) and <code>maxPageSize</code> (default 1000). Long polling requests
+ * wait <code>defaultPollTimeout</code> milliseconds (default 30000) for new messages, at most
+ * <code>maxPollTimeout</code> milliseconds (default 120000). <br/>
+ * Room reads carry an <code>ETag</code> header. Sending it back as <code>If-None-Match</code> yields HTTP 304
+ * without a body as long as nothing changed.
  */
-@WebServlet("/rooms/*")
+@WebServlet(value = "/rooms/*", asyncSupported = true)
 public class ChatServlet extends AbstractChatRoomServlet {
 
     private ChatRoomService service = ChatRoomService.getInstance();
+    private MessageDispatcher dispatcher = MessageDispatcher.getInstance();
+
+    /**
+     * The serialized list of all rooms, rebuilt only when {@link ChatRoomService#getVersion()} changed.
+     */
+    private volatile CachedResponse roomList = new CachedResponse(-1, null, null);
+
+    /**
+     * The serialized default page (newest messages) per room id, valid as long as its entity tag matches the room.
+     */
+    private Map<String, CachedResponse> defaultPages = new ConcurrentHashMap<>();
+
+    private int defaultPageSize;
+    private int maxPageSize;
+    private int defaultPollTimeout;
+    private int maxPollTimeout;
+
+    @Override
+    public void init() throws ServletException {
+        defaultPageSize = getIntInitParameter("defaultPageSize", 100);
+        maxPageSize = getIntInitParameter("maxPageSize", 1000);
+        defaultPollTimeout = getIntInitParameter("defaultPollTimeout", 30000);
+        maxPollTimeout = getIntInitParameter("maxPollTimeout", 120000);
+    }
 
     /**
      * <b>
@@ -57,22 +102,59 @@ public class ChatServlet extends AbstractChatRoomServlet {
      *             "name": "Group A",
      *             "messages": [
      *                 {
+     *                     "sequence": 41,
+     *                     "timestamp": 1586962337000,
      *                     "username": "Benjamin",
      *                     "message": "Moin"
      *                 },
      *                 {
+     *                     "sequence": 42,
+     *                     "timestamp": 1586962351000,
      *                     "username": "Benjamin",
      *                     "message": "Was geht, Freunde?"
      *                 }
      *             ]
-     *         }
+     *         },
+     *         "next_cursor": 41
+     *     }
+     * </code>
+     * A single room only contains a page of its messages, which may be selected by following query parameters:
+     * <ul>
+     *     <li><code>since</code>: Only messages with a sequence greater than given one, oldest first. The
+     *     <code>next_cursor</code> is the sequence of the last delivered message and may be used as next
+     *     <code>since</code>.</li>
+     *     <li><code>before</code>: Only messages with a sequence less than given one. Without <code>since</code>,
+     *     the newest of those messages are delivered and the <code>next_cursor</code> is the sequence of the oldest
+     *     delivered message, which may be used as next <code>before</code>. It is omitted, if there are no older
+     *     messages.</li>
+     *     <li><code>limit</code>: The maximum number of messages to deliver.</li>
+     * </ul>
+     * Without any of these, the newest messages of the room are delivered.
+     * <br/>
+     * For waiting on new messages, a GET on <code>/rooms/{room_id}/messages?since={sequence}</code> may be used
+     * (long polling). If there are messages after given sequence, they are delivered immediately. Otherwise the
+     * request is parked until a message is posted to the room or the <code>timeout</code> (in milliseconds)
+     * elapses. Without <code>since</code>, the request waits for the next message. A <code>since</code> after the
+     * last message of the room is rejected with status 400. The response conforms to the
+     * {@link MessageResponse} schema, an empty message list means that the timeout elapsed:
+     * <code>
+     *     {
+     *         "status": "OK",
+     *         "messages": [
+     *             {
+     *                 "sequence": 43,
+     *                 "timestamp": 1586962399000,
+     *                 "username": "Benjamin",
+     *                 "message": "Ist da wer?"
+     *             }
+     *         ],
+     *         "next_cursor": 43
      *     }
      * </code>
      */
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         Response response = new RoomListResponse();
-        resp.getWriter().write(req.getPathInfo() + "\n");
         try {
             Optional<User> authorizedUser = getAuthorizedUser(req);
             if (!authorizedUser.isPresent()) {
@@ -83,26 +165,43 @@ public class ChatServlet extends AbstractChatRoomServlet {
             if ("/".equals(pathInfo)) {
                 response = deliverAllRooms(req, resp);
             } else if (pathInfo.matches("^/[a-zA-Z0-9\\-]{36}/?$")) {
-                response = deliverSingleRoom(response,resp, pathInfo.replace("/", ""));
+                response = deliverSingleRoom(response, req, resp, pathInfo.replace("/", ""));
+            } else if (pathInfo.matches("^/[a-zA-Z0-9\\-]{36}/messages/?$")) {
+                response = pollMessages(response, req, resp, pathInfo.replace("/messages", "").replace("/", ""));
             } else {
                 unknownPath(response, resp);
             }
             return;
+        } catch (IllegalArgumentException e) {
+            writeResponse(response, resp, 400, e.getMessage());
+            return;
         } catch (Exception up) {
             writeResponse(response, resp, 500, up.getMessage());
             throw up;
         } finally {
-            if (!resp.isCommitted()) {
+            if (!resp.isCommitted() && !req.isAsyncStarted()) {
                 writeResponse(response, resp, 500, "unknown error, please contact me");
             }
         }
     }
 
-    private Response deliverSingleRoom(Response response, HttpServletResponse resp, String roomId) throws IOException {
+    private Response deliverSingleRoom(Response response, HttpServletRequest req, HttpServletResponse resp, String roomId) throws IOException {
         Optional<ChatRoom> chatRoom = service.getChatRoom(roomId);
         if(chatRoom.isPresent()) {
             SingleRoomResponse myResponse = new SingleRoomResponse();
-            myResponse.setRoom(toJson(chatRoom.get()));
+            Long since = getLongParameter(req, "since");
+            Long before = getLongParameter(req, "before");
+            int limit = getLimit(req);
+            // read before the page, so the tag is never newer than the delivered messages
+            String etag = roomEtag(chatRoom.get().getMessageLog());
+            if (notModified(req, resp, etag)) {
+                return response;
+            }
+            if (since == null && before == null && limit == defaultPageSize) {
+                writeResponse(getDefaultPage(chatRoom.get(), etag), resp, 200);
+                return response;
+            }
+            setPage(myResponse, chatRoom.get(), since, before, limit);
             ok(myResponse, resp);
         } else {
             writeResponse(response, resp, 404, "ChatRoom not found");
@@ -110,16 +209,242 @@ public class ChatServlet extends AbstractChatRoomServlet {
         return response;
     }
 
-    private RoomListResponse deliverAllRooms(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        RoomListResponse response = new RoomListResponse();
-        List<RoomJson> rooms = service.getRooms().stream().map(ChatServlet::toJson).collect(Collectors.toList());
-        // just want to return the bare list of chat rooms
-        rooms.forEach(r -> r.setMessages(null));
-        response.setRooms(rooms);
-        ok(response, resp);
+    /**
+     * @return The serialized default page of given room, rebuilt if given entity tag changed since building it.
+     */
+    private CachedResponse getDefaultPage(ChatRoom chatRoom, String etag) throws IOException {
+        CachedResponse cached = defaultPages.get(chatRoom.getId());
+        if (cached == null || !cached.getEtag().equals(etag)) {
+            SingleRoomResponse response = new SingleRoomResponse();
+            setPage(response, chatRoom, null, null, defaultPageSize);
+            response.setStatus(Status.OK);
+            cached = new CachedResponse(0, etag, Mapper.getAsJsonBytes(response));
+            defaultPages.put(chatRoom.getId(), cached);
+        }
+        return cached;
+    }
+
+    private int getLimit(HttpServletRequest req) {
+        Long limit = getLongParameter(req, "limit");
+        if (limit == null) {
+            return defaultPageSize;
+        } else if (limit < 1) {
+            throw new IllegalArgumentException("Invalid value for query parameter limit: " + limit);
+        }
+        return (int) Math.min(limit, maxPageSize);
+    }
+
+    /**
+     * Writes a page of the messages of given room into the response. Only the requested window of the
+     * {@link MessageLog} is read.
+     *
+     * @param response The response to write the room and next cursor into.
+     * @param chatRoom The room to read the messages from.
+     * @param since If given, only messages after this sequence are delivered, oldest first.
+     * @param before If given, only messages before this sequence are delivered.
+     * @param limit The maximum number of messages.
+     */
+    private void setPage(SingleRoomResponse response, ChatRoom chatRoom, Long since, Long before, int limit) {
+        MessageLog log = chatRoom.getMessageLog();
+        long last = log.lastSequence();
+        List<Message> messages;
+        Long nextCursor;
+        if (since != null) {
+            messages = messagesSince(log, since, before, limit);
+            nextCursor = messages.isEmpty() ? since : messages.get(messages.size() - 1).getSequence();
+        } else {
+            long to = before != null ? Math.min(before - 1, last) : last;
+            messages = log.range(to - limit + 1, to);
+            nextCursor = !messages.isEmpty() && messages.get(0).getSequence() > log.firstSequence()
+                    ? messages.get(0).getSequence() : null;
+        }
+        response.setRoom(toJson(chatRoom, messages));
+        response.setNextCursor(nextCursor);
+    }
+
+    /**
+     * Delivers the messages after the <code>since</code> query parameter. If there are none yet, the request is
+     * put into asynchronous mode and completed by a {@link LongPoll} as soon as a message is posted or the
+     * timeout elapses. Meanwhile no container thread is occupied.
+     */
+    private Response pollMessages(Response response, HttpServletRequest req, HttpServletResponse resp, String roomId) throws IOException {
+        Optional<ChatRoom> chatRoom = service.getChatRoom(roomId);
+        if (!chatRoom.isPresent()) {
+            writeResponse(response, resp, 404, "ChatRoom not found");
+            return response;
+        }
+        MessageLog log = chatRoom.get().getMessageLog();
+        Long since = getLongParameter(req, "since");
+        Long timeout = getLongParameter(req, "timeout");
+        if (since != null && since > log.lastSequence()) {
+            writeResponse(response, resp, 400, "since is after the last message " + log.lastSequence());
+            return response;
+        }
+        LongPoll poll = new LongPoll(chatRoom.get(), since != null ? since : log.lastSequence(), getLimit(req));
+        if ((timeout != null && timeout <= 0) || log.lastSequence() > poll.since) {
+            ok(poll.toResponse(), resp);
+            return response;
+        }
+
+        // passing the response on keeps it compressible
+        AsyncContext context = req.startAsync(req, resp);
+        context.setTimeout(timeout != null ? Math.min(timeout, maxPollTimeout) : defaultPollTimeout);
+        poll.start(context);
         return response;
     }
 
+    private static List<Message> messagesSince(MessageLog log, long since, Long before, int limit) {
+        long last = log.lastSequence();
+        long from = Math.max(since, log.firstSequence() - 1) + 1;
+        long to = before != null ? Math.min(before - 1, last) : last;
+        return log.range(from, Math.min(to, from + limit - 1));
+    }
+
+    /**
+     * A parked long polling request. Subscribes to the room and completes the request once, either when a message
+     * is delivered or when the request times out.
+     */
+    private final class LongPoll implements Subscriber, AsyncListener {
+
+        private final ChatRoom chatRoom;
+        private final long since;
+        private final int limit;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private AsyncContext context;
+        private volatile Subscription subscription;
+
+        LongPoll(ChatRoom chatRoom, long since, int limit) {
+            this.chatRoom = chatRoom;
+            this.since = since;
+            this.limit = limit;
+        }
+
+        void start(AsyncContext context) {
+            this.context = context;
+            context.addListener(this);
+            // messages posted meanwhile are delivered right away
+            subscription = dispatcher.subscribe(chatRoom, this, since, 1, OverflowPolicy.DROP_OLDEST);
+            if (done.get()) {
+                subscription.cancel();
+            }
+        }
+
+        MessageResponse toResponse() {
+            MessageResponse response = new MessageResponse();
+            List<Message> messages = messagesSince(chatRoom.getMessageLog(), since, null, limit);
+            response.setMessages(messages);
+            response.setNextCursor(messages.isEmpty() ? since : messages.get(messages.size() - 1).getSequence());
+            return response;
+        }
+
+        /**
+         * Completes the request on a container thread. The dispatcher's executor only hands the response off, as
+         * it must not wait for a slow client.
+         */
+        private void complete() {
+            if (done.compareAndSet(false, true)) {
+                cancel();
+                context.start(this::respond);
+            }
+        }
+
+        private void respond() {
+            try {
+                ok(toResponse(), (HttpServletResponse) context.getResponse());
+            } catch (IOException | RuntimeException e) {
+                log("Failed to complete long polling request", e);
+            } finally {
+                context.complete();
+            }
+        }
+
+        private void cancel() {
+            Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        @Override
+        public void deliver(ChatRoom chatRoom, List<Message> messages, Runnable done) {
+            complete();
+        }
+
+        @Override
+        public void resync(ChatRoom chatRoom, long lastDelivered, Runnable done) {
+            complete();
+        }
+
+        @Override
+        public void disconnect(ChatRoom chatRoom) {
+            complete();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // already on a container thread, which must not start another one while timing out
+            if (done.compareAndSet(false, true)) {
+                cancel();
+                respond();
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            if (done.compareAndSet(false, true)) {
+                cancel();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            cancel();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // nothing to do
+        }
+    }
+
+    private RoomListResponse deliverAllRooms(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if (notModified(req, resp, roomListEtag(service.getVersion()))) {
+            return new RoomListResponse();
+        }
+        writeResponse(getRoomList(), resp, 200);
+        return new RoomListResponse();
+    }
+
+    /**
+     * A room's messages only change by appending (or dropping the oldest ones), so its first and last sequence
+     * identify every page of it. The query parameters are part of the URL and need not be part of the tag.
+     */
+    private static String roomEtag(MessageLog log) {
+        return "\"" + log.firstSequence() + "-" + log.lastSequence() + "\"";
+    }
+
+    private static String roomListEtag(long version) {
+        return "\"rooms-" + version + "\"";
+    }
+
+    /**
+     * @return The serialized list of all rooms, rebuilt if rooms were added since building it last time.
+     */
+    private CachedResponse getRoomList() throws IOException {
+        CachedResponse cached = roomList;
+        long version = service.getVersion();
+        if (cached.getVersion() != version) {
+            RoomListResponse response = new RoomListResponse();
+            // just want to return the bare list of chat rooms
+            response.setRooms(service.getRooms().stream().map(r -> toJson(r, null)).collect(Collectors.toList()));
+            response.setStatus(Status.OK);
+            // the version read before reading the rooms, so rooms added meanwhile cause another rebuild
+            cached = new CachedResponse(version, roomListEtag(version), Mapper.getAsJsonBytes(response));
+            roomList = cached;
+        }
+        return cached;
+    }
+
     /**
      * <b>
      *     Requires Authentication! Authenticated user must be declared by
@@ -136,6 +461,19 @@ public class ChatServlet extends AbstractChatRoomServlet {
      *         "name": "Group A"
      *     }
      * </code>
+     * Optionally, the retention of the room's messages may be given. Older messages exceeding any of the limits are
+     * evicted in the background. Omitted limits are unlimited, without <code>retention</code> the server's default
+     * applies (See {@link RetentionJson}, the age is given in milliseconds and the size is estimated):
+     * <code>
+     *     {
+     *         "name": "Group A",
+     *         "retention": {
+     *             "max_messages": 10000,
+     *             "max_age": 604800000,
+     *             "max_bytes": 10485760
+     *         }
+     *     }
+     * </code>
      * As response, the newly created chat room will be shown in the response in {@link SingleRoomResponse} schema:
      * <code>
      *     {
@@ -164,6 +502,8 @@ public class ChatServlet extends AbstractChatRoomServlet {
      *              "name": "Group A",
      *              "messages": [
      *                  {
+     *                      "sequence": 1,
+     *                      "timestamp": 1586962337000,
      *                      "username": "Benjamin",
      *                      "message": "Moin"
      *                  }
@@ -171,6 +511,23 @@ public class ChatServlet extends AbstractChatRoomServlet {
      *          }
      *      }
      * </code>
+     * By adding the query parameter <code>lean=true</code>, only the stored message is returned instead
+     * (See {@link MessageResponse}). Its id consists of the room id and its sequence:
+     * <code>
+     *     {
+     *          "status": "OK",
+     *          "message": {
+     *              "id": "3a285f0d-3541-4c30-830d-1b4bbad98672:42",
+     *              "sequence": 42,
+     *              "timestamp": 1586962337000,
+     *              "username": "Benjamin",
+     *              "message": "Moin"
+     *          }
+     *      }
+     * </code>
+     * In lean mode, the query parameter <code>since</code> may be given additionally. Then the response contains
+     * the <code>messages</code> after that sequence (including the stored one, if within <code>limit</code>)
+     * and the <code>next_cursor</code>, just like a GET on the room.
      */
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -182,12 +539,11 @@ public class ChatServlet extends AbstractChatRoomServlet {
                 return;
             }
 
-            String requestString = getRequestBody(req);
             String pathInfo = req.getPathInfo() != null ? req.getPathInfo(): "/";
             if ("/".equals(pathInfo)) {
-                response = createRoom(resp, requestString);
+                response = createRoom(req, resp);
             } else if (pathInfo.matches("^/[a-zA-Z0-9\\-]{36}/messages$")) {
-                response = postMessage(response,resp, authorizedUser.get(), pathInfo.replace("/messages", "").replace("/",""), requestString);
+                response = postMessage(response, req, resp, authorizedUser.get(), pathInfo.replace("/messages", "").replace("/",""));
             } else {
                 unknownPath(response, resp);
             }
@@ -196,6 +552,12 @@ public class ChatServlet extends AbstractChatRoomServlet {
         } catch(JsonProcessingException e) {
             writeResponse(response, resp, 400, "Your message s not valid: " + e.getMessage());
             return;
+        } catch (RequestTooLargeException e) {
+            writeResponse(response, resp, 413, e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            writeResponse(response, resp, 400, e.getMessage());
+            return;
         } catch (Exception up) {
             writeResponse(response, resp, 500, up.getMessage());
             throw up;
@@ -206,13 +568,20 @@ public class ChatServlet extends AbstractChatRoomServlet {
         }
     }
 
-    private Response postMessage(Response response, HttpServletResponse resp, User user, String roomId, String requestString) throws IOException {
+    private Response postMessage(Response response, HttpServletRequest req, HttpServletResponse resp, User user, String roomId) throws IOException {
         Optional<ChatRoom> chatRoom = service.getChatRoom(roomId);
         if(chatRoom.isPresent()) {
-            MessageJson json = Mapper.getAsObject(requestString, MessageJson.class);
-            chatRoom.get().getMessages().add(new Message(user, json.getMessage()));
+            MessageJson json = readRequestBody(req, MessageJson.class);
+            if (json.getMessage() == null || json.getMessage().isEmpty()) {
+                throw new JsonProcessingException("Missing message") {};
+            }
+            Message message = service.postMessage(chatRoom.get(), user, json.getMessage());
+            if (Boolean.parseBoolean(req.getParameter("lean"))) {
+                ok(toLeanResponse(chatRoom.get(), message, req), resp);
+                return response;
+            }
             SingleRoomResponse myResponse = new SingleRoomResponse();
-            myResponse.setRoom(toJson(chatRoom.get()));
+            setPage(myResponse, chatRoom.get(), null, null, defaultPageSize);
             ok(myResponse, resp);
         } else {
             writeResponse(response, resp, 404, "ChatRoom not found");
@@ -220,29 +589,40 @@ public class ChatServlet extends AbstractChatRoomServlet {
         return response;
     }
 
-    private SingleRoomResponse createRoom(HttpServletResponse resp, String requestString) throws IOException {
-        RoomJson input = Mapper.getAsObject(requestString, RoomJson.class);
+    private MessageResponse toLeanResponse(ChatRoom chatRoom, Message message, HttpServletRequest req) {
+        MessageResponse response = new MessageResponse();
+        MessageJson json = MessageJson.of(message);
+        json.setId(chatRoom.getId() + ":" + message.getSequence());
+        response.setMessage(json);
+        Long since = getLongParameter(req, "since");
+        if (since != null) {
+            List<Message> messages = messagesSince(chatRoom.getMessageLog(), since, null, getLimit(req));
+            response.setMessages(messages);
+            response.setNextCursor(messages.isEmpty() ? since : messages.get(messages.size() - 1).getSequence());
+        }
+        return response;
+    }
+
+    private SingleRoomResponse createRoom(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        RoomJson input = readRequestBody(req, RoomJson.class);
         if(input.getName() == null) {
             throw new JsonProcessingException("Missing name") {};
         } else {
             SingleRoomResponse response = new SingleRoomResponse();
-            ChatRoom registeredRoom = service.addChatRoom(input.getName());
-            response.setRoom(toJson(registeredRoom));
+            ChatRoom registeredRoom = service.addChatRoom(input.getName(),
+                    input.getRetention() != null ? input.getRetention().toRetentionPolicy() : null);
+            response.setRoom(toJson(registeredRoom, registeredRoom.getMessages()));
             ok(response, resp);
             return response;
         }
     }
 
-    private static RoomJson toJson(ChatRoom chatRoom) {
+    static RoomJson toJson(ChatRoom chatRoom, List<Message> messages) {
         RoomJson json = new RoomJson();
         json.setId(chatRoom.getId());
         json.setName(chatRoom.getName());
-        json.setMessages(chatRoom.getMessages().stream().map(m -> {
-            MessageJson msg = new MessageJson();
-            msg.setUsername(m.getUser().getName());
-            msg.setMessage(m.getMessage());
-            return msg;
-        }).collect(Collectors.toList()));
+        json.setRetention(RetentionJson.of(chatRoom.getRetention()));
+        json.setMessages(messages);
         return json;
     }
 
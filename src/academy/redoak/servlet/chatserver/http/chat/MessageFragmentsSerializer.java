@@ -0,0 +1,131 @@
+package academy.redoak.servlet.chatserver.http.chat;
+
+import academy.redoak.servlet.chatserver.model.Message;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Jackson serializer writing a list of {@link Message}s as JSON array of their cached fragments (See
+ * {@link MessageJson#fragment(Message)}). The fragments are copied into the output as they are, so messages are
+ * not serialized again on every read.
+ */
+public class MessageFragmentsSerializer extends StdSerializer<List<Message>> {
+
+    @SuppressWarnings("unchecked")
+    public MessageFragmentsSerializer() {
+        super((Class<List<Message>>) (Class<?>) List.class);
+    }
+
+    @Override
+    public void serialize(List<Message> messages, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        RawFragment fragment = new RawFragment();
+        gen.writeStartArray();
+        for (Message message : messages) {
+            fragment.utf8 = MessageJson.fragment(message);
+            gen.writeRawValue(fragment);
+        }
+        gen.writeEndArray();
+    }
+
+    /**
+     * UTF-8 encoded JSON value to be written raw. Reused for all fragments of a list, so writing a list does not
+     * allocate per message. Only the unquoted variants are used for raw values, the quoted ones are supported
+     * for completeness by decoding.
+     */
+    private static final class RawFragment implements SerializableString {
+
+        private byte[] utf8;
+
+        @Override
+        public String getValue() {
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int charLength() {
+            return getValue().length();
+        }
+
+        @Override
+        public byte[] asUnquotedUTF8() {
+            return utf8;
+        }
+
+        @Override
+        public int appendUnquotedUTF8(byte[] buffer, int offset) {
+            if (offset + utf8.length > buffer.length) {
+                return -1;
+            }
+            System.arraycopy(utf8, 0, buffer, offset, utf8.length);
+            return utf8.length;
+        }
+
+        @Override
+        public int appendUnquoted(char[] buffer, int offset) {
+            String value = getValue();
+            if (offset + value.length() > buffer.length) {
+                return -1;
+            }
+            value.getChars(0, value.length(), buffer, offset);
+            return value.length();
+        }
+
+        @Override
+        public int writeUnquotedUTF8(OutputStream out) throws IOException {
+            out.write(utf8);
+            return utf8.length;
+        }
+
+        @Override
+        public int putUnquotedUTF8(ByteBuffer out) {
+            if (utf8.length > out.remaining()) {
+                return -1;
+            }
+            out.put(utf8);
+            return utf8.length;
+        }
+
+        @Override
+        public char[] asQuotedChars() {
+            return quoted().asQuotedChars();
+        }
+
+        @Override
+        public byte[] asQuotedUTF8() {
+            return quoted().asQuotedUTF8();
+        }
+
+        @Override
+        public int appendQuotedUTF8(byte[] buffer, int offset) {
+            return quoted().appendQuotedUTF8(buffer, offset);
+        }
+
+        @Override
+        public int appendQuoted(char[] buffer, int offset) {
+            return quoted().appendQuoted(buffer, offset);
+        }
+
+        @Override
+        public int writeQuotedUTF8(OutputStream out) throws IOException {
+            return quoted().writeQuotedUTF8(out);
+        }
+
+        @Override
+        public int putQuotedUTF8(ByteBuffer buffer) throws IOException {
+            return quoted().putQuotedUTF8(buffer);
+        }
+
+        private SerializedString quoted() {
+            return new SerializedString(getValue());
+        }
+    }
+}
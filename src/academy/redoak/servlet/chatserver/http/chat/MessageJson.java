@@ -1,7 +1,13 @@
 package academy.redoak.servlet.chatserver.http.chat;
 
+import academy.redoak.servlet.chatserver.model.Message;
+import academy.redoak.servlet.chatserver.model.User;
+import academy.redoak.servlet.chatserver.util.Mapper;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
 
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
 /**
@@ -9,24 +15,192 @@ import java.util.Objects;
  */
 public class MessageJson {
 
+    private static final byte[] SEQUENCE = "{\"sequence\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TIMESTAMP = ",\"timestamp\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] USERNAME = ",\"username\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MESSAGE = ",\"message\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The escape sequence length of every ASCII character within a JSON string, 0 for characters written as they
+     * are. Just like Jackson, only quotes, backslashes and control characters are escaped.
+     */
+    private static final int[] ESCAPES = new int[128];
+
+    static {
+        for (int i = 0; i < 0x20; i++) {
+            ESCAPES[i] = 6;
+        }
+        for (char c : new char[] {'"', '\\', '\b', '\t', '\n', '\f', '\r'}) {
+            ESCAPES[c] = 2;
+        }
+    }
+
+    @JsonProperty
+    private String id;
+
+    @JsonProperty
+    private Long sequence;
+
+    @JsonProperty
+    private Long timestamp;
+
     @JsonProperty
     private String username;
 
     @JsonProperty
     private String message;
 
+    /**
+     * Maps given {@link Message} to its JSON representation.
+     *
+     * @param message The message to be mapped.
+     * @return The mapped message, without id.
+     */
+    public static MessageJson of(Message message) {
+        MessageJson json = new MessageJson();
+        json.setSequence(message.getSequence());
+        json.setTimestamp(message.getTimestamp());
+        json.setUsername(message.getUser().getName());
+        json.setMessage(message.getMessage());
+        return json;
+    }
+
+    /**
+     * Returns the UTF-8 encoded JSON of given {@link Message}, as mapped by {@link #of(Message)}. The fragment is
+     * cached in the message object, which is shared by all subscribers receiving it. <br/>
+     * The fragment is assembled right from the UTF-8 encoded text of the message and the cached JSON of its
+     * author's name, so neither the text nor the name are encoded again for every read of a stored message.
+     *
+     * @param message The message to get the fragment of.
+     * @return The JSON fragment.
+     */
+    public static byte[] fragment(Message message) {
+        byte[] json = message.getJson();
+        if (json == null) {
+            byte[] sequence = Long.toString(message.getSequence()).getBytes(StandardCharsets.UTF_8);
+            byte[] timestamp = Long.toString(message.getTimestamp()).getBytes(StandardCharsets.UTF_8);
+            byte[] username = nameJson(message.getUser());
+            byte[] text = message.getText();
+            json = new byte[SEQUENCE.length + sequence.length + TIMESTAMP.length + timestamp.length
+                    + USERNAME.length + username.length + MESSAGE.length + quotedLength(text) + 1];
+            int position = put(json, 0, SEQUENCE);
+            position = put(json, position, sequence);
+            position = put(json, position, TIMESTAMP);
+            position = put(json, position, timestamp);
+            position = put(json, position, USERNAME);
+            position = put(json, position, username);
+            position = put(json, position, MESSAGE);
+            position = putQuoted(json, position, text);
+            json[position] = '}';
+            message.setJson(json);
+        }
+        return json;
+    }
+
+    private static byte[] nameJson(User user) {
+        byte[] json = user.getNameJson();
+        if (json == null) {
+            try {
+                json = Mapper.getAsJsonBytes(user.getName());
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+            user.setNameJson(json);
+        }
+        return json;
+    }
+
+    private static int put(byte[] buffer, int position, byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    /**
+     * @return The length of given UTF-8 encoded string as JSON string, including quotes and escape sequences.
+     */
+    private static int quotedLength(byte[] utf8) {
+        int length = utf8.length + 2;
+        for (byte b : utf8) {
+            if (b >= 0 && ESCAPES[b] != 0) {
+                length += ESCAPES[b] - 1;
+            }
+        }
+        return length;
+    }
+
+    private static int putQuoted(byte[] buffer, int position, byte[] utf8) {
+        buffer[position++] = '"';
+        for (byte b : utf8) {
+            // bytes of multi-byte characters are negative and never escaped
+            if (b < 0 || ESCAPES[b] == 0) {
+                buffer[position++] = b;
+            } else if (ESCAPES[b] == 2) {
+                buffer[position++] = '\\';
+                buffer[position++] = (byte) shortEscape(b);
+            } else {
+                buffer[position++] = '\\';
+                buffer[position++] = 'u';
+                buffer[position++] = '0';
+                buffer[position++] = '0';
+                buffer[position++] = HEX[b >> 4];
+                buffer[position++] = HEX[b & 0xF];
+            }
+        }
+        buffer[position++] = '"';
+        return position;
+    }
+
+    private static char shortEscape(byte b) {
+        switch (b) {
+            case '\b': return 'b';
+            case '\t': return 't';
+            case '\n': return 'n';
+            case '\f': return 'f';
+            case '\r': return 'r';
+            default: return (char) b;
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         MessageJson that = (MessageJson) o;
-        return Objects.equals(username, that.username) &&
+        return Objects.equals(id, that.id) &&
+                Objects.equals(sequence, that.sequence) &&
+                Objects.equals(timestamp, that.timestamp) &&
+                Objects.equals(username, that.username) &&
                 Objects.equals(message, that.message);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(username, message);
+        return Objects.hash(id, sequence, timestamp, username, message);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Long timestamp) {
+        this.timestamp = timestamp;
     }
 
     public String getUsername() {
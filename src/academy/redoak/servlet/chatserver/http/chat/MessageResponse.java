@@ -0,0 +1,67 @@
+package academy.redoak.servlet.chatserver.http.chat;
+
+import academy.redoak.servlet.chatserver.http.Response;
+import academy.redoak.servlet.chatserver.model.Message;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * POJO for {@link Response}s of {@link ChatServlet}, when posting a message in lean mode. Consists of basic
+ * properties from {@link Response} class and has additionally the stored message. If requested, the messages
+ * since a given cursor and the cursor for retrieving the following ones are available, too.
+ */
+public class MessageResponse extends Response {
+
+    @JsonProperty
+    private MessageJson message;
+
+    @JsonProperty
+    @JsonSerialize(using = MessageFragmentsSerializer.class)
+    private List<Message> messages;
+
+    @JsonProperty("next_cursor")
+    private Long nextCursor;
+
+    public MessageJson getMessage() {
+        return message;
+    }
+
+    public void setMessage(MessageJson message) {
+        this.message = message;
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    public void setMessages(List<Message> messages) {
+        this.messages = messages;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(Long nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+        MessageResponse that = (MessageResponse) o;
+        return Objects.equals(message, that.message) &&
+                Objects.equals(messages, that.messages) &&
+                Objects.equals(nextCursor, that.nextCursor);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), message, messages, nextCursor);
+    }
+}
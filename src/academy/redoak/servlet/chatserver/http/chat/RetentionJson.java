@@ -0,0 +1,88 @@
+package academy.redoak.servlet.chatserver.http.chat;
+
+import academy.redoak.servlet.chatserver.model.RetentionPolicy;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+/**
+ * POJO for Jackson mapping representing a {@link RetentionPolicy} object. Omitted limits are unlimited.
+ */
+public class RetentionJson {
+
+    @JsonProperty("max_messages")
+    private Long maxMessages;
+
+    @JsonProperty("max_age")
+    private Long maxAge;
+
+    @JsonProperty("max_bytes")
+    private Long maxBytes;
+
+    /**
+     * Maps given {@link RetentionPolicy} to its JSON representation.
+     *
+     * @param retention The retention to be mapped, may be <code>null</code>.
+     * @return The mapped retention, <code>null</code> for <code>null</code>.
+     */
+    public static RetentionJson of(RetentionPolicy retention) {
+        if (retention == null) {
+            return null;
+        }
+        RetentionJson json = new RetentionJson();
+        json.setMaxMessages(retention.getMaxMessages());
+        json.setMaxAge(retention.getMaxAge());
+        json.setMaxBytes(retention.getMaxBytes());
+        return json;
+    }
+
+    /**
+     * @return The {@link RetentionPolicy} represented by this object.
+     * @throws IllegalArgumentException If a limit is negative.
+     */
+    public RetentionPolicy toRetentionPolicy() {
+        return new RetentionPolicy(
+                maxMessages != null ? maxMessages : 0,
+                maxAge != null ? maxAge : 0,
+                maxBytes != null ? maxBytes : 0);
+    }
+
+    public Long getMaxMessages() {
+        return maxMessages;
+    }
+
+    public void setMaxMessages(Long maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+    public Long getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(Long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public Long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(Long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RetentionJson that = (RetentionJson) o;
+        return Objects.equals(maxMessages, that.maxMessages) &&
+                Objects.equals(maxAge, that.maxAge) &&
+                Objects.equals(maxBytes, that.maxBytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxMessages, maxAge, maxBytes);
+    }
+}
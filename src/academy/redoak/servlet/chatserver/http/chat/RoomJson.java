@@ -1,12 +1,15 @@
 package academy.redoak.servlet.chatserver.http.chat;
 
+import academy.redoak.servlet.chatserver.model.Message;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 import java.util.List;
 import java.util.Objects;
 
 /**
- * POJO for Jackson mapping representing a {@link academy.redoak.servlet.chatserver.model.ChatRoom} object.
+ * POJO for Jackson mapping representing a {@link academy.redoak.servlet.chatserver.model.ChatRoom} object. Its
+ * messages are written as cached fragments by the {@link MessageFragmentsSerializer} and ignored when reading.
  */
 public class RoomJson {
 
@@ -17,7 +20,11 @@ public class RoomJson {
     private String name;
 
     @JsonProperty
-    private List<MessageJson> messages;
+    private RetentionJson retention;
+
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    @JsonSerialize(using = MessageFragmentsSerializer.class)
+    private List<Message> messages;
 
     public String getId() {
         return id;
@@ -35,11 +42,19 @@ public class RoomJson {
         this.name = name;
     }
 
-    public List<MessageJson> getMessages() {
+    public RetentionJson getRetention() {
+        return retention;
+    }
+
+    public void setRetention(RetentionJson retention) {
+        this.retention = retention;
+    }
+
+    public List<Message> getMessages() {
         return messages;
     }
 
-    public void setMessages(List<MessageJson> messages) {
+    public void setMessages(List<Message> messages) {
         this.messages = messages;
     }
 
@@ -50,11 +65,12 @@ public class RoomJson {
         RoomJson roomJson = (RoomJson) o;
         return Objects.equals(id, roomJson.id) &&
                 Objects.equals(name, roomJson.name) &&
+                Objects.equals(retention, roomJson.retention) &&
                 Objects.equals(messages, roomJson.messages);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, name, messages);
+        return Objects.hash(id, name, retention, messages);
     }
 }
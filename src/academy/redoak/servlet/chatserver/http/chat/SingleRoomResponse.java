@@ -5,13 +5,17 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
  * POJO for {@link Response}s of {@link ChatServlet}, when returning a single chat room. Consists of basic properties
- * from {@link Response} class and has additionally a the room available.
+ * from {@link Response} class and has additionally a the room available. If the room contains only a page of its
+ * messages, the cursor for retrieving the next page is given, too.
  */
 public class SingleRoomResponse extends Response {
 
     @JsonProperty
     RoomJson room;
 
+    @JsonProperty("next_cursor")
+    Long nextCursor;
+
     public RoomJson getRoom() {
         return room;
     }
@@ -19,4 +23,12 @@ public class SingleRoomResponse extends Response {
     public void setRoom(RoomJson room) {
         this.room = room;
     }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(Long nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
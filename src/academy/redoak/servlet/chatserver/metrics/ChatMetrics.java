@@ -0,0 +1,96 @@
+package academy.redoak.servlet.chatserver.metrics;
+
+import academy.redoak.servlet.chatserver.service.AuthService;
+import academy.redoak.servlet.chatserver.service.ChatRoomService;
+import academy.redoak.servlet.chatserver.service.MessageDispatcher;
+import academy.redoak.servlet.chatserver.service.RetentionSweeper;
+import academy.redoak.servlet.chatserver.service.RoomStatistics;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Singleton exporting the live statistics of users, rooms and messages. Singleton instance may be retrieved by
+ * {@link #getInstance()}. <br/>
+ * Totals are read from counters maintained by the services. Per room, only the largest and the busiest rooms are
+ * exported, at most {@link ChatRoomService#TOP_ROOMS} of each, so neither the number of series nor the cost of a
+ * scrape grows with the number of rooms.
+ */
+public class ChatMetrics {
+
+    private AuthService authService = AuthService.getInstance();
+    private ChatRoomService chatRoomService = ChatRoomService.getInstance();
+    private MessageDispatcher dispatcher = MessageDispatcher.getInstance();
+    private RetentionSweeper retentionSweeper = RetentionSweeper.getInstance();
+
+    private ChatMetrics() {
+        // private constructor due to singleton class
+    }
+
+    /**
+     * Writes all metrics.
+     *
+     * @param out The writer to write to.
+     */
+    public void write(PrometheusWriter out) {
+        out.metric("chatserver_users", "gauge", "Number of registered users.");
+        out.sample("chatserver_users", authService.getUserCount());
+        out.metric("chatserver_rooms", "gauge", "Number of rooms.");
+        out.sample("chatserver_rooms", chatRoomService.getRoomCount());
+        out.metric("chatserver_messages", "gauge", "Number of messages of all rooms not evicted yet.");
+        out.sample("chatserver_messages", chatRoomService.getMessageCount());
+        out.metric("chatserver_message_bytes", "gauge",
+                "Estimated size of the messages of all rooms not evicted yet, including cold storage.");
+        out.sample("chatserver_message_bytes", chatRoomService.getMessageBytes());
+        out.metric("chatserver_message_heap_bytes", "gauge", "Estimated size of the messages on the heap.");
+        out.sample("chatserver_message_heap_bytes", chatRoomService.getHeapBytes());
+        out.metric("chatserver_subscriptions", "gauge", "Number of active subscriptions to all rooms.");
+        out.sample("chatserver_subscriptions", dispatcher.getSubscriptionCount());
+
+        Set<RoomStatistics> rooms = new LinkedHashSet<>(chatRoomService.getLargestRooms());
+        rooms.addAll(chatRoomService.getBusiestRooms());
+        out.metric("chatserver_room_messages", "gauge", "Number of messages of the largest and busiest rooms.");
+        for (RoomStatistics room : rooms) {
+            out.sample("chatserver_room_messages", labels(room), room.getMessages());
+        }
+        out.metric("chatserver_room_message_rate", "gauge",
+                "Messages posted per second to the largest and busiest rooms, averaged over about a minute.");
+        for (RoomStatistics room : rooms) {
+            out.sample("chatserver_room_message_rate", labels(room), room.getMessageRate());
+        }
+        out.metric("chatserver_room_heap_bytes", "gauge",
+                "Estimated size of the messages of the largest and busiest rooms on the heap.");
+        for (RoomStatistics room : rooms) {
+            out.sample("chatserver_room_heap_bytes", labels(room), room.getHeapBytes());
+        }
+        out.metric("chatserver_room_subscribers", "gauge",
+                "Number of active subscriptions to the largest and busiest rooms.");
+        for (RoomStatistics room : rooms) {
+            out.sample("chatserver_room_subscribers", labels(room), room.getSubscribers());
+        }
+
+        out.metric("chatserver_retention_sweeps_total", "counter", "Number of retention sweeps.");
+        out.sample("chatserver_retention_sweeps_total", retentionSweeper.getSweeps());
+        out.metric("chatserver_retention_evicted_messages_total", "counter",
+                "Number of messages evicted by retention sweeps.");
+        out.sample("chatserver_retention_evicted_messages_total", retentionSweeper.getEvictedMessages());
+        out.metric("chatserver_retention_evicted_bytes_total", "counter",
+                "Estimated size of the messages evicted by retention sweeps.");
+        out.sample("chatserver_retention_evicted_bytes_total", retentionSweeper.getEvictedBytes());
+    }
+
+    private static String[] labels(RoomStatistics room) {
+        return new String[] {"room", room.getChatRoom().getId(), "name", room.getChatRoom().getName()};
+    }
+
+    // --- Singleton
+
+    private static ChatMetrics instance = new ChatMetrics();
+
+    /**
+     * @return The singleton instance.
+     */
+    public static ChatMetrics getInstance() {
+        return instance;
+    }
+}
@@ -0,0 +1,68 @@
+package academy.redoak.servlet.chatserver.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram with fixed bucket bounds in the style of Prometheus. Recording is lock-free: it searches the bucket and
+ * increments a striped {@link LongAdder}, so concurrent threads hardly contend. <br/>
+ * The buckets are counted individually and only summed up to cumulative counts when written, so the count of
+ * all values is always consistent with the buckets.
+ */
+public final class Histogram {
+
+    private final long[] bounds;
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param bounds The inclusive upper bounds of the buckets in ascending order. Larger values are counted in an
+     *               additional bucket without upper bound.
+     */
+    public Histogram(long... bounds) {
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param value The value to record.
+     */
+    public void record(long value) {
+        int low = 0;
+        int high = bounds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (bounds[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        buckets[low].increment();
+        sum.add(value);
+    }
+
+    /**
+     * Writes the buckets, sum and count of this histogram.
+     *
+     * @param out The writer to write to.
+     * @param name The name of the histogram.
+     * @param labels The labels of this histogram as alternating names and values.
+     * @param scale The number of recorded units per exported unit, e.g. 1e9 for exporting nanoseconds as seconds.
+     */
+    public void write(PrometheusWriter out, String name, String[] labels, double scale) {
+        String[] bucketLabels = new String[labels.length + 2];
+        System.arraycopy(labels, 0, bucketLabels, 0, labels.length);
+        bucketLabels[labels.length] = "le";
+        long count = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            count += buckets[i].sum();
+            bucketLabels[labels.length + 1] = i < bounds.length ? PrometheusWriter.format(bounds[i] / scale) : "+Inf";
+            out.sample(name + "_bucket", bucketLabels, count);
+        }
+        out.sample(name + "_sum", labels, sum.sum() / scale);
+        out.sample(name + "_count", labels, count);
+    }
+}
@@ -0,0 +1,149 @@
+package academy.redoak.servlet.chatserver.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Singleton collecting the number, status codes, latency and response sizes of the HTTP requests per route, as
+ * recorded by the {@link MetricsFilter}. Singleton instance may be retrieved by {@link #getInstance()}. <br/>
+ * Recording only increments striped {@link LongAdder}s and never locks, except for creating the counters of a
+ * method on its first request. The routes are a fixed set of templates like <code>/rooms/{id}</code>, so the
+ * number of exported series stays bounded.
+ */
+public class HttpMetrics {
+
+    public static final String USERS = "/users";
+    public static final String ROOMS = "/rooms";
+    public static final String ROOM = "/rooms/{id}";
+    public static final String MESSAGES = "/rooms/{id}/messages";
+    public static final String EVENTS = "/events/{id}";
+    public static final String OTHER = "other";
+
+    private static final String[] ROUTES = {USERS, ROOMS, ROOM, MESSAGES, EVENTS, OTHER};
+
+    /**
+     * Latency buckets from 100 microseconds up to 2 minutes in nanoseconds, covering long-polls and event streams.
+     */
+    private static final long[] LATENCY_BOUNDS = {
+            100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L, 100_000_000L,
+            250_000_000L, 500_000_000L, 1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L,
+            30_000_000_000L, 60_000_000_000L, 120_000_000_000L};
+
+    private static final long[] SIZE_BOUNDS = {100, 1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    private HttpMetrics() {
+        // private constructor due to singleton class
+        for (String route : ROUTES) {
+            routes.put(route, new Route());
+        }
+    }
+
+    /**
+     * Records a finished request.
+     *
+     * @param route One of the route constants of this class.
+     * @param method The HTTP method.
+     * @param status The status code of the response.
+     * @param nanos The time from receiving the request until the response was completed in nanoseconds.
+     * @param bytes The number of bytes of the response body as sent, i.e. after compression.
+     */
+    public void record(String route, String method, int status, long nanos, long bytes) {
+        Route metrics = routes.getOrDefault(route, routes.get(OTHER));
+        metrics.requests(method).increment(status);
+        metrics.latency.record(nanos);
+        metrics.sizes.record(bytes);
+        metrics.bytes.add(bytes);
+    }
+
+    /**
+     * Writes all metrics.
+     *
+     * @param out The writer to write to.
+     */
+    public void write(PrometheusWriter out) {
+        out.metric("chatserver_http_requests_total", "counter",
+                "Number of handled HTTP requests by route, method and status code.");
+        for (String route : ROUTES) {
+            for (Map.Entry<String, StatusCounters> entry : routes.get(route).methods.entrySet()) {
+                entry.getValue().write(out, route, entry.getKey());
+            }
+        }
+        out.metric("chatserver_http_request_duration_seconds", "histogram",
+                "Time from receiving a request until its response was completed.");
+        for (String route : ROUTES) {
+            routes.get(route).latency.write(out, "chatserver_http_request_duration_seconds",
+                    new String[] {"route", route}, 1e9);
+        }
+        out.metric("chatserver_http_response_size_bytes", "histogram",
+                "Size of the response bodies as sent, i.e. after compression.");
+        for (String route : ROUTES) {
+            routes.get(route).sizes.write(out, "chatserver_http_response_size_bytes",
+                    new String[] {"route", route}, 1);
+        }
+        out.metric("chatserver_http_response_bytes_total", "counter",
+                "Number of response body bytes sent.");
+        for (String route : ROUTES) {
+            out.sample("chatserver_http_response_bytes_total", new String[] {"route", route},
+                    routes.get(route).bytes.sum());
+        }
+    }
+
+    private static final class Route {
+
+        private final Map<String, StatusCounters> methods = new ConcurrentHashMap<>();
+        private final Histogram latency = new Histogram(LATENCY_BOUNDS);
+        private final Histogram sizes = new Histogram(SIZE_BOUNDS);
+        private final LongAdder bytes = new LongAdder();
+
+        private StatusCounters requests(String method) {
+            // get first, as computeIfAbsent locks even for present keys on Java 8
+            StatusCounters counters = methods.get(method);
+            return counters != null ? counters : methods.computeIfAbsent(method, key -> new StatusCounters());
+        }
+    }
+
+    /**
+     * Counters per status code from 100 to 599, created on the first response with the respective code.
+     */
+    private static final class StatusCounters {
+
+        private final AtomicReferenceArray<LongAdder> counters = new AtomicReferenceArray<>(500);
+
+        private void increment(int status) {
+            int index = status >= 100 && status < 600 ? status - 100 : 500 - 100;
+            LongAdder counter = counters.get(index);
+            if (counter == null) {
+                counters.compareAndSet(index, null, new LongAdder());
+                counter = counters.get(index);
+            }
+            counter.increment();
+        }
+
+        private void write(PrometheusWriter out, String route, String method) {
+            for (int i = 0; i < counters.length(); i++) {
+                LongAdder counter = counters.get(i);
+                if (counter != null) {
+                    out.sample("chatserver_http_requests_total",
+                            new String[] {"route", route, "method", method, "status", Integer.toString(i + 100)},
+                            counter.sum());
+                }
+            }
+        }
+    }
+
+    // --- Singleton
+
+    private static HttpMetrics instance = new HttpMetrics();
+
+    /**
+     * @return The singleton instance.
+     */
+    public static HttpMetrics getInstance() {
+        return instance;
+    }
+}
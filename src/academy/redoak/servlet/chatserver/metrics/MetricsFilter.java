@@ -0,0 +1,212 @@
+package academy.redoak.servlet.chatserver.metrics;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+
+/**
+ * {@link Filter} recording every request to the chat servlets in the {@link HttpMetrics}. The response is wrapped
+ * for counting the bytes written to {@link HttpServletResponse#getOutputStream()}, which all servlets write to.
+ * <br/>
+ * Synchronous requests are recorded once the chain returns. Asynchronous ones, like long-polls and event streams,
+ * are recorded when their {@link javax.servlet.AsyncContext} completes, times out or fails.
+ */
+@WebFilter(urlPatterns = {"/users", "/rooms/*", "/events/*"}, asyncSupported = true)
+public class MetricsFilter implements Filter {
+
+    private HttpMetrics metrics = HttpMetrics.getInstance();
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        // nothing to configure
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        long start = System.nanoTime();
+        HttpServletRequest req = (HttpServletRequest) request;
+        Recording recording = new Recording(req, (HttpServletResponse) response, start);
+        try {
+            chain.doFilter(req, recording);
+        } catch (IOException | ServletException | RuntimeException e) {
+            recording.failed = true;
+            recording.record();
+            throw e;
+        }
+        if (req.isAsyncStarted()) {
+            req.getAsyncContext().addListener(recording);
+        } else {
+            recording.record();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // nothing to release
+    }
+
+    /**
+     * @return The route template of given request, e.g. <code>/rooms/{id}/messages</code>. Identifiers are not
+     * validated, this is up to the servlets.
+     */
+    static String route(HttpServletRequest req) {
+        String servletPath = req.getServletPath();
+        String pathInfo = req.getPathInfo();
+        boolean root = pathInfo == null || pathInfo.equals("/");
+        switch (servletPath) {
+            case "/users":
+                return HttpMetrics.USERS;
+            case "/rooms":
+                if (root) {
+                    return HttpMetrics.ROOMS;
+                }
+                int slash = pathInfo.indexOf('/', 1);
+                if (slash < 0 || slash == pathInfo.length() - 1) {
+                    return HttpMetrics.ROOM;
+                }
+                int end = pathInfo.endsWith("/") ? pathInfo.length() - 1 : pathInfo.length();
+                return end - slash == "/messages".length() && pathInfo.startsWith("/messages", slash)
+                        ? HttpMetrics.MESSAGES : HttpMetrics.OTHER;
+            case "/events":
+                return root ? HttpMetrics.OTHER : HttpMetrics.EVENTS;
+            default:
+                return HttpMetrics.OTHER;
+        }
+    }
+
+    /**
+     * @return The given method, if it is a standard one, otherwise <code>OTHER</code>, so clients can not create
+     * arbitrary series.
+     */
+    static String method(String method) {
+        switch (method) {
+            case "GET":
+            case "HEAD":
+            case "POST":
+            case "PUT":
+            case "PATCH":
+            case "DELETE":
+            case "OPTIONS":
+                return method;
+            default:
+                return "OTHER";
+        }
+    }
+
+    /**
+     * The wrapped response of one request, which records it exactly once.
+     */
+    private final class Recording extends HttpServletResponseWrapper implements AsyncListener {
+
+        private final String route;
+        private final String method;
+        private final long start;
+        private CountingOutputStream out;
+        private volatile boolean failed;
+        private volatile boolean recorded;
+
+        private Recording(HttpServletRequest req, HttpServletResponse resp, long start) {
+            super(resp);
+            this.route = route(req);
+            this.method = method(req.getMethod());
+            this.start = start;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                out = new CountingOutputStream(super.getOutputStream());
+            }
+            return out;
+        }
+
+        private void record() {
+            if (recorded) {
+                return;
+            }
+            recorded = true;
+            int status = failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : getStatus();
+            metrics.record(route, method, status, System.nanoTime() - start, out != null ? out.count : 0);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            record();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // the servlet's own listener completes the request, which is recorded then
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            failed = true;
+            record();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // recording is registered once the chain returned
+        }
+    }
+
+    /**
+     * Counts the bytes written to the delegate. Counting is not synchronized, as a servlet output stream is written
+     * by one thread at a time anyway.
+     */
+    private static final class CountingOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream delegate;
+        private volatile long count;
+
+        private CountingOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package academy.redoak.servlet.chatserver.metrics;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link HttpServlet} exposing the collected metrics in the Prometheus text format for being scraped:
+ * <code>
+ *     GET /metrics
+ * </code>
+ * The endpoint is not authenticated, like most metrics endpoints. Restrict access to it in front of the server, if
+ * needed.
+ */
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+
+    private HttpMetrics httpMetrics = HttpMetrics.getInstance();
+    private ChatMetrics chatMetrics = ChatMetrics.getInstance();
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setStatus(200);
+        resp.setContentType(PrometheusWriter.CONTENT_TYPE);
+        resp.setHeader("Cache-Control", "no-cache");
+        OutputStreamWriter writer = new OutputStreamWriter(resp.getOutputStream(), StandardCharsets.UTF_8);
+        try (PrintWriter out = new PrintWriter(writer)) {
+            PrometheusWriter prometheus = new PrometheusWriter(out);
+            httpMetrics.write(prometheus);
+            chatMetrics.write(prometheus);
+        }
+    }
+}
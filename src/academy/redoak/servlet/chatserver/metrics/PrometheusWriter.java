@@ -0,0 +1,91 @@
+package academy.redoak.servlet.chatserver.metrics;
+
+import java.io.PrintWriter;
+
+/**
+ * Writes metrics in the Prometheus text exposition format (version 0.0.4):
+ * <code>
+ *     # HELP chatserver_http_requests_total Number of handled HTTP requests.
+ *     # TYPE chatserver_http_requests_total counter
+ *     chatserver_http_requests_total{route="/rooms/{id}",method="GET",status="200"} 42
+ * </code>
+ */
+public final class PrometheusWriter {
+
+    /**
+     * The content type of the format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final PrintWriter out;
+
+    public PrometheusWriter(PrintWriter out) {
+        this.out = out;
+    }
+
+    /**
+     * Starts a metric. All its samples must follow.
+     *
+     * @param name The name of the metric.
+     * @param type The type, e.g. <code>counter</code>, <code>gauge</code> or <code>histogram</code>.
+     * @param help The description of the metric.
+     */
+    public void metric(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * @param name The name of the sample.
+     * @param labels The labels as alternating names and values, which are escaped as needed.
+     * @param value The value of the sample.
+     */
+    public void sample(String name, String[] labels, double value) {
+        out.append(name);
+        if (labels.length > 0) {
+            out.append('{');
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(labels[i]).append("=\"");
+                escape(labels[i + 1]);
+                out.append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    /**
+     * @param name The name of the sample.
+     * @param value The value of the sample.
+     */
+    public void sample(String name, double value) {
+        sample(name, new String[0], value);
+    }
+
+    private void escape(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    /**
+     * @param value A value of a sample.
+     * @return The value formatted without exponent for integral values, as Prometheus expects it.
+     */
+    static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
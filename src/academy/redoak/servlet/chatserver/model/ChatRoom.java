@@ -1,25 +1,65 @@
 package academy.redoak.servlet.chatserver.model;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
 /**
- * Basically a POJO representing a chat room.
+ * Basically a POJO representing a chat room. Its messages are held in an append-only {@link MessageLog}, whose
+ * oldest messages may be evicted according to the room's {@link RetentionPolicy}.
  */
 public class ChatRoom {
 
     private String id;
     private String name;
-    private List<Message> messages;
+    private MessageLog messages;
+    private RetentionPolicy retention;
 
     public ChatRoom(String id, String name) {
+        this(id, name, null);
+    }
+
+    /**
+     * @param id The id of the room.
+     * @param name The name of the room.
+     * @param retention The retention of its messages, <code>null</code> for the application's default.
+     */
+    public ChatRoom(String id, String name, RetentionPolicy retention) {
         this.id = id;
         this.name = name;
-        this.messages = new ArrayList<>();
+        this.messages = new MessageLog();
+        this.retention = retention;
+    }
+
+    /**
+     * Appends a new message to this room.
+     *
+     * @param user The author of the message.
+     * @param message The text of the message.
+     * @return The stored {@link Message} with its sequence number.
+     */
+    public Message postMessage(User user, String message) {
+        return messages.append(user, message);
+    }
+
+    /**
+     * Puts a message with an already assigned sequence number back into this room, e.g. when restoring it from disk.
+     *
+     * @param message The message to restore.
+     * @return <code>true</code>, if the message has been added, <code>false</code>, if the room already contains it.
+     * @see MessageLog#restore(Message)
+     */
+    public boolean restoreMessage(Message message) {
+        return messages.restore(message);
     }
 
+    /**
+     * @return An unmodifiable snapshot of all messages in this room.
+     */
     public List<Message> getMessages() {
+        return messages.snapshot();
+    }
+
+    public MessageLog getMessageLog() {
         return messages;
     }
 
@@ -31,18 +71,24 @@ public class ChatRoom {
         return name;
     }
 
+    /**
+     * @return The retention set for this room, <code>null</code>, if the application's default applies.
+     */
+    public RetentionPolicy getRetention() {
+        return retention;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ChatRoom chatRoom = (ChatRoom) o;
         return Objects.equals(id, chatRoom.id) &&
-                Objects.equals(name, chatRoom.name) &&
-                Objects.equals(messages, chatRoom.messages);
+                Objects.equals(name, chatRoom.name);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, name, messages);
+        return Objects.hash(id, name);
     }
 }
@@ -0,0 +1,47 @@
+package academy.redoak.servlet.chatserver.model;
+
+/**
+ * Storage outside of the heap for messages, which are rarely read any more. A {@link MessageLog} hands over its full
+ * segments once they fall out of its hot tail and reads them back through the returned {@link Segment}. <br/>
+ * Implementations must be thread-safe.
+ */
+public interface ColdStorage {
+
+    /**
+     * Stores the messages of given segment.
+     *
+     * @param segment The full segment, which does not change any more.
+     * @return The handle for reading the messages again.
+     */
+    Segment store(MessageSegment segment);
+
+    /**
+     * Messages stored in a {@link ColdStorage}.
+     */
+    interface Segment {
+
+        /**
+         * Reads a message back. Every call creates a new {@link Message} object.
+         *
+         * @param index The index of the message within the stored messages.
+         * @return The message.
+         */
+        Message get(int index);
+
+        /**
+         * Reads the length of a text without reading the message, e.g. for summing up the size of evicted messages.
+         *
+         * @param index The index of the message within the stored messages.
+         * @return The length of the UTF-8 encoded text, -1 for a slot without a message.
+         */
+        int getTextLength(int index);
+
+        /**
+         * Tells the storage, that the messages are not needed any more, e.g. as they are evicted. Readers having
+         * obtained the segment before may still read it, so the storage must keep it readable as long as it is
+         * referenced, even if it frees the space behind it right away.
+         */
+        default void release() {
+        }
+    }
+}
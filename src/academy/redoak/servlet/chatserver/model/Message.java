@@ -1,17 +1,69 @@
 package academy.redoak.servlet.chatserver.model;
 
+import java.nio.charset.StandardCharsets;
+
 /**
- * A POJO representing a Message inide a {@link ChatRoom}.
+ * A POJO representing a Message inide a {@link ChatRoom}. <br/>
+ * The text is held UTF-8 encoded, just like it is stored and written. Messages read from a {@link MessageLog} are
+ * created on demand and share the text with the log, so it must not be modified.
  */
 public class Message {
 	
+	private long sequence;
+	private long timestamp;
 	private User user;
-	private String message;
+	private byte[] text;
+	private volatile byte[] json;
 
 	public Message(User user, String message) {
 		super();
 		this.user = user;
-		this.message = message;
+		setMessage(message);
+	}
+
+	public Message(long sequence, long timestamp, User user, String message) {
+		this(user, message);
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @param sequence The sequence number of the message.
+	 * @param timestamp The time of storing the message.
+	 * @param user The author of the message.
+	 * @param text The UTF-8 encoded text, which is not copied.
+	 */
+	public Message(long sequence, long timestamp, User user, byte[] text) {
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.user = user;
+		this.text = text;
+	}
+
+	/**
+	 * @return The sequence number of this message inside its {@link MessageLog}, or 0 if not stored yet.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return The time of storing this message in milliseconds since epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return The cached UTF-8 encoded JSON representation of this message or <code>null</code>, if not
+	 * 		created yet.
+	 */
+	public byte[] getJson() {
+		return json;
+	}
+
+	public void setJson(byte[] json) {
+		this.json = json;
 	}
 
 	public User getUser() {
@@ -22,17 +74,27 @@ public class Message {
 		this.user = user;
 	}
 
+	/**
+	 * @return The text of this message, decoded on every call.
+	 */
 	public String getMessage() {
-		return message;
+		return new String(text, StandardCharsets.UTF_8);
 	}
 
 	public void setMessage(String message) {
-		this.message = message;
+		this.text = message.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return The UTF-8 encoded text of this message, which must not be modified.
+	 */
+	public byte[] getText() {
+		return text;
 	}
 
 	@Override
 	public String toString() {
-		return "Messages [user=" + user + ", message=" + message + "]";
+		return "Messages [sequence=" + sequence + ", timestamp=" + timestamp + ", user=" + user + ", message=" + getMessage() + "]";
 	}
 	
 	
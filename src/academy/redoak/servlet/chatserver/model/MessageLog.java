@@ -0,0 +1,667 @@
+package academy.redoak.servlet.chatserver.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of {@link Message}s belonging to a {@link ChatRoom}. <br/>
+ * Every appended message gets a monotonically increasing sequence number, starting with 1. Messages are stored
+ * in fixed size segments, so the log grows without ever copying its content. Within a {@link MessageSegment}, they
+ * are packed into primitive arrays and only turned into {@link Message} objects when read. <br/>
+ * Appending is lock-free: a writer claims its sequence number by an atomic increment, writes its slot concurrently
+ * with other writers and marks it stored. The published sequence number is then advanced by compare-and-set over
+ * all consecutive stored slots, by whichever writer finds them stored, so no writer waits for another one. A writer
+ * stalled between claiming and storing, e.g. by being descheduled, only delays the publication of the following
+ * messages, not their writers. Readers never wait, they only ever see published messages, so every view returned by
+ * this class is a consistent snapshot, which does not change when messages are appended meanwhile. <br/>
+ * An append listener may be set for recording messages elsewhere. It is called by every writer concurrently, before
+ * its slot is stored, so it sees messages roughly, but not strictly, in sequence order. <br/>
+ * With a {@link ColdStorage} set, only the segments of a hot tail of recent messages are kept on the heap. Older
+ * segments are moved to the {@link ColdStorage} in the background as soon as they fall out of the tail and are read
+ * back on demand. Without one, all messages stay on the heap.
+ * <br/>
+ * The oldest messages may be evicted by {@link #evictBefore(long)}, which advances {@link #firstSequence()}. <br/>
+ * A {@link SizeListener} may be set for aggregating the sizes of many logs without visiting each of them.
+ */
+public class MessageLog {
+
+    static final int SEGMENT_SHIFT = 10;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /**
+     * Estimated heap bytes of a stored message besides its text: timestamp, user handle, text reference and the
+     * header of the text array.
+     */
+    private static final int MESSAGE_OVERHEAD = 32;
+
+    /**
+     * The text of a message, whose writer failed after claiming its sequence number.
+     */
+    private static final byte[] TOMBSTONE = new byte[0];
+
+    private static final long PUBLISH_POLL_NANOS = 100_000;
+
+    /**
+     * The segment directory. Never modified in place, but replaced by a modified copy whenever a segment is added,
+     * moved to the {@link ColdStorage} or evicted.
+     */
+    private final AtomicReference<Directory> directory = new AtomicReference<>(Directory.EMPTY);
+    private final UserTable users = UserTable.getInstance();
+    private volatile ColdStorage coldStorage;
+    private volatile Executor spiller;
+    private volatile int hotSegments;
+    private final AtomicBoolean spillScheduled = new AtomicBoolean();
+    private final Object spillLock = new Object();
+    private int spilled;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private volatile long first = 1;
+    private volatile Consumer<Message> appendListener = message -> { };
+    private volatile SizeListener sizeListener = (messages, bytes, heapBytes) -> { };
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong heapBytes = new AtomicLong();
+    private final AtomicLong evictedMessages = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+
+    /**
+     * Appends a new message to this log. <br/>
+     * Everything that may fail on bad input is done before claiming a sequence number. If the append listener fails
+     * afterwards, an empty message is published in place of the message, as a message missing in the journal would
+     * be lost on restart, and the failure is rethrown.
+     *
+     * @param user The author of the message.
+     * @param text The text of the message.
+     * @return The stored {@link Message} with its sequence number and timestamp.
+     * @throws NullPointerException If user or text is <code>null</code>.
+     */
+    public Message append(User user, String text) {
+        Objects.requireNonNull(user, "user");
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        int handle = users.handle(user);
+        long timestamp = System.currentTimeMillis();
+
+        long sequence = claimed.incrementAndGet();
+        MessageSegment segment = awaitSegment(sequence);
+        Message message = new Message(sequence, timestamp, user, utf8);
+        boolean journaled = false;
+        try {
+            appendListener.accept(message);
+            journaled = true;
+        } finally {
+            byte[] stored = journaled ? utf8 : TOMBSTONE;
+            segment.set(slot(sequence), timestamp, handle, stored);
+            long size = sizeOf(stored);
+            bytes.addAndGet(size);
+            heapBytes.addAndGet(size);
+            advancePublished();
+            sizeListener.sizeChanged(1, size, size);
+            if (slot(sequence) == 0) {
+                dropFragments(sequence);
+                scheduleSpill();
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Gets the segment for a claimed sequence number. Its slot has to be stored eventually, as the following
+     * messages cannot be published before, so allocating the segment is retried, if the heap is exhausted.
+     */
+    private MessageSegment awaitSegment(long sequence) {
+        while (true) {
+            try {
+                return segmentFor(sequence);
+            } catch (OutOfMemoryError e) {
+                LockSupport.parkNanos(PUBLISH_POLL_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Puts a message with an already assigned sequence number back into this log, e.g. when restoring it from disk.
+     * Not meant to be called concurrently with {@link #append(User, String)}. The append listener is not called.
+     *
+     * @param message The message to restore. Its sequence number must follow the last one in this log.
+     * @return <code>true</code>, if the message has been added, <code>false</code>, if this log already contains it.
+     * @throws IllegalArgumentException If the sequence number leaves a gap.
+     */
+    public boolean restore(Message message) {
+        long sequence = message.getSequence();
+        if (sequence <= claimed.get()) {
+            return false;
+        } else if (sequence != claimed.get() + 1) {
+            throw new IllegalArgumentException("Expected sequence " + (claimed.get() + 1) + ", but got " + sequence);
+        }
+        claimed.set(sequence);
+        store(message);
+        long size = sizeOf(message);
+        bytes.addAndGet(size);
+        heapBytes.addAndGet(size);
+        published.set(sequence);
+        sizeListener.sizeChanged(1, size, size);
+        if (slot(sequence) == 0) {
+            dropFragments(sequence);
+            scheduleSpill();
+        }
+        return true;
+    }
+
+    /**
+     * Skips the sequence numbers up to the one before given one, e.g. when messages are missing in the journal
+     * being restored from. The skipped messages read as empty messages by {@link UserTable#NOBODY}, unless the log
+     * is empty, which then continues with given sequence number. Not meant to be called concurrently with
+     * {@link #append(User, String)}.
+     *
+     * @param sequence The sequence number of the next message to be restored.
+     */
+    public void restoreGap(long sequence) {
+        long last = claimed.get();
+        if (sequence <= last + 1) {
+            return;
+        } else if (last == 0) {
+            restoreFirstSequence(sequence);
+            return;
+        }
+        // creates the segments of the skipped messages, their slots stay empty
+        segmentFor(sequence - 1);
+        claimed.set(sequence - 1);
+        published.set(sequence - 1);
+    }
+
+    /**
+     * Lets an empty log continue with given sequence number, e.g. when restoring a log whose older messages were
+     * evicted. Not meant to be called concurrently with {@link #append(User, String)}.
+     *
+     * @param sequence The sequence number of the next message.
+     * @throws IllegalStateException If the log is not empty.
+     */
+    public void restoreFirstSequence(long sequence) {
+        if (claimed.get() != 0) {
+            throw new IllegalStateException("Log already contains messages");
+        }
+        long last = sequence - 1;
+        claimed.set(last);
+        published.set(last);
+        first = sequence;
+        directory.set(new Directory(new MessageSegment[0], new ColdStorage.Segment[0], segmentIndex(sequence)));
+        synchronized (spillLock) {
+            spilled = Math.max(spilled, segmentIndex(sequence));
+        }
+    }
+
+    /**
+     * Waits until every message, whose sequence number has been claimed so far, is published, parking meanwhile.
+     * Afterwards, every message passed to the append listener before is contained in this log.
+     *
+     * @return The sequence number of the last published message.
+     */
+    public long awaitPublished() {
+        long target = claimed.get();
+        while (advancePublished() < target) {
+            LockSupport.parkNanos(PUBLISH_POLL_NANOS);
+        }
+        return published.get();
+    }
+
+    /**
+     * Evicts all messages with a sequence number less than given one. Readers are never blocked: views taken before
+     * keep their messages, later ones start after the evicted messages. Segments, whose messages are all evicted,
+     * are released right away, as {@link ColdStorage.Segment#release()} keeps them readable for those views. The
+     * evicted bytes are summed up from the stored text lengths, without reading the messages.
+     *
+     * @param sequence The sequence number of the first message to keep, at most one after the last message.
+     * @return The number of evicted messages.
+     */
+    public synchronized long evictBefore(long sequence) {
+        long newFirst = Math.min(sequence, lastSequence() + 1);
+        long oldFirst = first;
+        if (newFirst <= oldFirst) {
+            return 0;
+        }
+        Directory evicted = directory.get();
+        long evictedBytes = 0;
+        for (long evictedSequence = oldFirst; evictedSequence < newFirst; evictedSequence++) {
+            evictedBytes += evicted.sizeOf(evictedSequence);
+        }
+        // readers clamp to the first sequence after taking the directory, so released segments are never read
+        first = newFirst;
+        int keep = segmentIndex(newFirst);
+        long releasedHeapBytes = 0;
+        while (true) {
+            Directory current = directory.get();
+            if (current.firstSegment >= keep) {
+                break;
+            } else if (directory.compareAndSet(current, current.release(keep))) {
+                // only views taken before may still read them, which the cold storage allows for
+                for (int i = current.firstSegment; i < Math.min(keep, current.cold.length); i++) {
+                    if (current.cold[i] != null) {
+                        current.cold[i].release();
+                    } else if (current.hot[i] != null) {
+                        releasedHeapBytes += heapSizeOf(current.hot[i]);
+                    }
+                }
+                break;
+            }
+        }
+        bytes.addAndGet(-evictedBytes);
+        heapBytes.addAndGet(-releasedHeapBytes);
+        this.evictedBytes.addAndGet(evictedBytes);
+        evictedMessages.addAndGet(newFirst - oldFirst);
+        sizeListener.sizeChanged(oldFirst - newFirst, -evictedBytes, -releasedHeapBytes);
+        return newFirst - oldFirst;
+    }
+
+    /**
+     * Sets the {@link ColdStorage} for the messages before the hot tail. Existing messages are moved with the next
+     * started segment.
+     *
+     * @param coldStorage The storage to move old messages to.
+     * @param hotMessages The minimal number of recent messages to keep on the heap, rounded up to full segments.
+     * @param spiller The executor moving the messages, so writers do not wait for the {@link ColdStorage}. Should
+     *                be a single thread shared by all logs, as moving is serialized by the storage anyway.
+     */
+    public void setColdStorage(ColdStorage coldStorage, int hotMessages, Executor spiller) {
+        this.hotSegments = Math.max(1, (hotMessages + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+        this.spiller = spiller;
+        this.coldStorage = coldStorage;
+    }
+
+    /**
+     * Sets the listener being called for every appended message. Calls happen concurrently and not strictly in
+     * sequence order, before the message is stored, so a message is never published before the listener returned.
+     *
+     * @param appendListener The listener to be called.
+     */
+    public void setAppendListener(Consumer<Message> appendListener) {
+        this.appendListener = appendListener;
+    }
+
+    /**
+     * Sets the listener being called whenever messages are appended, restored, evicted or moved to the
+     * {@link ColdStorage}. Calls may happen concurrently, so the listener must be thread-safe and should return
+     * quickly.
+     *
+     * @param sizeListener The listener to be called.
+     */
+    public void setSizeListener(SizeListener sizeListener) {
+        this.sizeListener = sizeListener;
+    }
+
+    /**
+     * @return The sequence number of the first message in this log. If it is empty, the sequence number the next
+     * message will get.
+     */
+    public long firstSequence() {
+        return first;
+    }
+
+    /**
+     * @return The sequence number of the last published message, or 0 if the log is empty.
+     */
+    public long lastSequence() {
+        return published.get();
+    }
+
+    /**
+     * @return The number of published messages.
+     */
+    public int size() {
+        return (int) Math.max(0, lastSequence() - firstSequence() + 1);
+    }
+
+    /**
+     * @return The estimated size in bytes of all messages not evicted yet.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return The estimated size in bytes of the messages on the heap. Evicted messages count, until their segment
+     * is released, whereas messages moved to the {@link ColdStorage} do not.
+     */
+    public long getHeapBytes() {
+        return heapBytes.get();
+    }
+
+    /**
+     * @return The number of messages evicted so far.
+     */
+    public long getEvictedMessages() {
+        return evictedMessages.get();
+    }
+
+    /**
+     * @return The estimated size in bytes of the messages evicted so far.
+     */
+    public long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    /**
+     * @param sequence The sequence number of the message to retrieve.
+     * @return The message with given sequence number or <code>null</code>, if there is no published message
+     *      with that number.
+     */
+    public Message get(long sequence) {
+        Directory current = directory.get();
+        if (sequence < firstSequence() || sequence > lastSequence()) {
+            return null;
+        }
+        return current.read(sequence);
+    }
+
+    /**
+     * @return An unmodifiable snapshot of all published messages.
+     */
+    public List<Message> snapshot() {
+        return range(firstSequence(), lastSequence());
+    }
+
+    /**
+     * Creates an unmodifiable snapshot of the messages within given bounds. The bounds are cut down to the published
+     * messages, so the returned list may be empty. No message is copied.
+     *
+     * @param fromSequence The sequence number of the first message (inclusive).
+     * @param toSequence The sequence number of the last message (inclusive).
+     * @return The messages with sequence numbers in given range, in sequence order.
+     */
+    public List<Message> range(long fromSequence, long toSequence) {
+        long last = lastSequence();
+        Directory current = directory.get();
+        long from = Math.max(fromSequence, firstSequence());
+        long to = Math.min(toSequence, last);
+        if (from > to) {
+            return Collections.emptyList();
+        }
+        return new Snapshot(current, from, (int) (to - from + 1));
+    }
+
+    /**
+     * @param message A message of this log.
+     * @return The estimated heap size of given message in bytes, as used for {@link #getBytes()}. The text array is
+     * rounded up to 8 bytes, like most JVMs align objects.
+     */
+    public static long sizeOf(Message message) {
+        return sizeOf(message.getText());
+    }
+
+    private static long sizeOf(byte[] text) {
+        return sizeOf(text.length);
+    }
+
+    private static long sizeOf(int textLength) {
+        return MESSAGE_OVERHEAD + ((textLength + 7) & ~7);
+    }
+
+    /**
+     * @return The estimated heap size of the messages stored in given segment, which are all published.
+     */
+    private static long heapSizeOf(MessageSegment segment) {
+        long size = 0;
+        for (int i = 0; i < segment.size(); i++) {
+            byte[] text = segment.getText(i);
+            if (text != null) {
+                // slots before the first sequence of a restored log stay empty
+                size += sizeOf(text);
+            }
+        }
+        return size;
+    }
+
+    private void store(Message message) {
+        store(message.getSequence(), message.getTimestamp(), users.handle(message.getUser()), message.getText());
+    }
+
+    private void store(long sequence, long timestamp, int user, byte[] text) {
+        segmentFor(sequence).set(slot(sequence), timestamp, user, text);
+    }
+
+    private MessageSegment segmentFor(long sequence) {
+        int index = segmentIndex(sequence);
+        while (true) {
+            Directory current = directory.get();
+            if (index < current.hot.length && current.hot[index] != null) {
+                return current.hot[index];
+            }
+            directory.compareAndSet(current, current.grow(index));
+        }
+    }
+
+    /**
+     * Advances the published sequence number over all consecutive stored slots. Every writer calls this after
+     * storing its slot, so the number is pushed by whoever stores the last missing slot, without anyone waiting for
+     * a preceding writer. A writer either sees the slot following the published number being stored, or its writer
+     * sees the published number reaching the slot before, as both are volatile.
+     *
+     * @return The sequence number of the last published message.
+     */
+    private long advancePublished() {
+        long current = published.get();
+        while (isStored(current + 1)) {
+            if (published.compareAndSet(current, current + 1)) {
+                current++;
+            } else {
+                current = published.get();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return <code>true</code>, if the slot of given sequence number, which is not published yet, has been stored.
+     */
+    private boolean isStored(long sequence) {
+        MessageSegment[] hot = directory.get().hot;
+        int index = segmentIndex(sequence);
+        return index < hot.length && hot[index] != null && hot[index].isStored(slot(sequence));
+    }
+
+    /**
+     * Drops the cached JSON fragments of the segment before the previous one, so only the fragments of the two
+     * newest segments are kept. Called, whenever a message starting a new segment has been published.
+     *
+     * @param sequence The sequence number of the published message.
+     */
+    private void dropFragments(long sequence) {
+        int index = segmentIndex(sequence) - 2;
+        MessageSegment[] hot = directory.get().hot;
+        if (index >= 0 && index < hot.length && hot[index] != null) {
+            hot[index].dropFragments();
+        }
+    }
+
+    /**
+     * Lets the spiller move the segments fallen out of the hot tail to the {@link ColdStorage}, unless it is about
+     * to do so anyway. Called, whenever a message starting a new segment has been stored.
+     */
+    private void scheduleSpill() {
+        if (coldStorage == null || !spillScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            spiller.execute(() -> {
+                spillScheduled.set(false);
+                spill(published.get());
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down, so the messages stay on the heap
+            spillScheduled.set(false);
+        }
+    }
+
+    /**
+     * Moves all full segments before the hot tail to the {@link ColdStorage}. Called by the spiller with the last
+     * published sequence number, so all messages of the moved segments are published.
+     *
+     * @param sequence The last published sequence number.
+     */
+    private void spill(long sequence) {
+        ColdStorage storage = coldStorage;
+        if (storage == null) {
+            return;
+        }
+        int firstHot = segmentIndex(sequence) - hotSegments + 1;
+        synchronized (spillLock) {
+            for (; spilled < firstHot; spilled++) {
+                int index = spilled;
+                MessageSegment segment = directory.get().hot[index];
+                if (segment == null) {
+                    // already evicted
+                    continue;
+                }
+                ColdStorage.Segment cold = storage.store(segment);
+                // snapshots taken before still see the segment, so it stays on the heap until they are gone
+                while (true) {
+                    Directory current = directory.get();
+                    if (current.hot[index] == null) {
+                        // evicted meanwhile
+                        cold.release();
+                        break;
+                    } else if (directory.compareAndSet(current, current.spill(index, cold))) {
+                        long spilledBytes = heapSizeOf(segment);
+                        heapBytes.addAndGet(-spilledBytes);
+                        sizeListener.sizeChanged(0, 0, -spilledBytes);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int segmentIndex(long sequence) {
+        return (int) ((sequence - 1) >>> SEGMENT_SHIFT);
+    }
+
+    private static int slot(long sequence) {
+        return (int) ((sequence - 1) & SEGMENT_MASK);
+    }
+
+    /**
+     * Listener for changes of the size of a log.
+     */
+    public interface SizeListener {
+
+        /**
+         * @param messages The change of the number of messages.
+         * @param bytes The change of the estimated size in bytes, see {@link #getBytes()}.
+         * @param heapBytes The change of the estimated size in bytes on the heap, see {@link #getHeapBytes()}.
+         */
+        void sizeChanged(long messages, long bytes, long heapBytes);
+    }
+
+    /**
+     * Immutable segment directory. A segment is either on the heap, in the {@link ColdStorage} or released.
+     */
+    private static final class Directory {
+
+        static final Directory EMPTY = new Directory(new MessageSegment[0], new ColdStorage.Segment[0], 0);
+
+        final MessageSegment[] hot;
+        final ColdStorage.Segment[] cold;
+        /**
+         * Index of the first segment not released.
+         */
+        final int firstSegment;
+
+        Directory(MessageSegment[] hot, ColdStorage.Segment[] cold, int firstSegment) {
+            this.hot = hot;
+            this.cold = cold;
+            this.firstSegment = firstSegment;
+        }
+
+        Message read(long sequence) {
+            int index = segmentIndex(sequence);
+            MessageSegment segment = hot[index];
+            return segment != null ? segment.get(slot(sequence)) : cold[index].get(slot(sequence));
+        }
+
+        /**
+         * @return The estimated heap size of the message with given sequence number, as summed up by
+         * {@link MessageLog#getBytes()}, 0 for an empty slot. Computed from the stored text length, without creating
+         * a {@link Message}.
+         */
+        long sizeOf(long sequence) {
+            int index = segmentIndex(sequence);
+            MessageSegment segment = hot[index];
+            int length;
+            if (segment != null) {
+                byte[] text = segment.getText(slot(sequence));
+                length = text != null ? text.length : -1;
+            } else {
+                length = cold[index].getTextLength(slot(sequence));
+            }
+            return length >= 0 ? MessageLog.sizeOf(length) : 0;
+        }
+
+        Directory grow(int index) {
+            int length = Math.max(hot.length, index + 1);
+            MessageSegment[] grown = Arrays.copyOf(hot, length);
+            for (int i = Math.max(hot.length, firstSegment); i < length; i++) {
+                grown[i] = new MessageSegment(((long) i << SEGMENT_SHIFT) + 1, SEGMENT_SIZE);
+            }
+            return new Directory(grown, Arrays.copyOf(cold, length), firstSegment);
+        }
+
+        Directory spill(int index, ColdStorage.Segment segment) {
+            MessageSegment[] spilledHot = hot.clone();
+            ColdStorage.Segment[] spilledCold = cold.clone();
+            spilledHot[index] = null;
+            spilledCold[index] = segment;
+            return new Directory(spilledHot, spilledCold, firstSegment);
+        }
+
+        Directory release(int keep) {
+            MessageSegment[] releasedHot = hot.clone();
+            ColdStorage.Segment[] releasedCold = cold.clone();
+            for (int i = firstSegment; i < Math.min(keep, hot.length); i++) {
+                releasedHot[i] = null;
+                releasedCold[i] = null;
+            }
+            return new Directory(releasedHot, releasedCold, Math.max(firstSegment, keep));
+        }
+    }
+
+    /**
+     * Read-only view on a range of published messages.
+     */
+    private static final class Snapshot extends AbstractList<Message> implements RandomAccess {
+
+        private final Directory directory;
+        private final long from;
+        private final int size;
+
+        Snapshot(Directory directory, long from, int size) {
+            this.directory = directory;
+            this.from = from;
+            this.size = size;
+        }
+
+        @Override
+        public Message get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return directory.read(from + index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
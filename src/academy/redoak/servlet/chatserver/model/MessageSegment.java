@@ -0,0 +1,126 @@
+package academy.redoak.servlet.chatserver.model;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed size segment of a {@link MessageLog} on the heap. Every field of the messages is packed into an array of
+ * its own: the timestamps into a <code>long[]</code>, the authors as handles of the {@link UserTable} into an
+ * <code>int[]</code> and the UTF-8 encoded texts into an {@link AtomicReferenceArray}. So a stored message costs 16
+ * bytes plus its text array instead of a {@link Message}, a String and its characters. <br/>
+ * {@link Message} objects are only created when reading and are not cached. Their JSON fragments are cached by
+ * the segment though, until the {@link MessageLog} drops them, once the segment is no longer among the newest ones.
+ * So the fragment of a new message is created once for all subscribers and readers of the latest page, while older
+ * messages cost no more than their packed fields. <br/>
+ * The text of a slot is written last by a volatile write, so it marks the slot as stored for the {@link MessageLog}
+ * publishing it.
+ */
+public final class MessageSegment {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final long firstSequence;
+    private final long[] timestamps;
+    private final int[] users;
+    private final AtomicReferenceArray<byte[]> texts;
+    private volatile AtomicReferenceArray<byte[]> fragments;
+
+    MessageSegment(long firstSequence, int size) {
+        this.firstSequence = firstSequence;
+        this.timestamps = new long[size];
+        this.users = new int[size];
+        this.texts = new AtomicReferenceArray<>(size);
+        this.fragments = new AtomicReferenceArray<>(size);
+    }
+
+    void set(int index, long timestamp, int user, byte[] text) {
+        timestamps[index] = timestamp;
+        users[index] = user;
+        texts.set(index, text);
+    }
+
+    /**
+     * @return <code>true</code>, if the slot of given index has been set.
+     */
+    boolean isStored(int index) {
+        return texts.get(index) != null;
+    }
+
+    /**
+     * @param index The index of the message within this segment.
+     * @return A new {@link Message} object for the message at given index. A slot never written, e.g. of a writer
+     * failing to store its message, reads as an empty message.
+     */
+    public Message get(int index) {
+        byte[] text = texts.get(index);
+        return new CachingMessage(this, index, UserTable.getInstance().get(users[index]),
+                text != null ? text : EMPTY);
+    }
+
+    /**
+     * Stops caching JSON fragments and lets the cached ones be garbage collected.
+     */
+    void dropFragments() {
+        fragments = null;
+    }
+
+    /**
+     * @return The sequence number of the first message.
+     */
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * @return The number of messages in this segment.
+     */
+    public int size() {
+        return timestamps.length;
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * @return The handle of the author in the {@link UserTable}.
+     */
+    public int getUser(int index) {
+        return users[index];
+    }
+
+    /**
+     * @return The UTF-8 encoded text, which must not be modified.
+     */
+    public byte[] getText(int index) {
+        return texts.get(index);
+    }
+
+    /**
+     * A message read from a segment, which takes its JSON fragment from the cache of the segment and puts it there,
+     * once it has been created.
+     */
+    private static final class CachingMessage extends Message {
+
+        private final MessageSegment segment;
+        private final int index;
+
+        CachingMessage(MessageSegment segment, int index, User user, byte[] text) {
+            super(segment.firstSequence + index, segment.timestamps[index], user, text);
+            this.segment = segment;
+            this.index = index;
+            AtomicReferenceArray<byte[]> fragments = segment.fragments;
+            if (fragments != null) {
+                super.setJson(fragments.get(index));
+            }
+        }
+
+        @Override
+        public void setJson(byte[] json) {
+            super.setJson(json);
+            AtomicReferenceArray<byte[]> fragments = segment.fragments;
+            if (fragments != null) {
+                fragments.lazySet(index, json);
+            }
+        }
+    }
+}
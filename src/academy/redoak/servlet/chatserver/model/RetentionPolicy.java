@@ -0,0 +1,73 @@
+package academy.redoak.servlet.chatserver.model;
+
+import java.util.Objects;
+
+/**
+ * Limits for the messages kept in a {@link ChatRoom}. Messages exceeding any of them are evicted, oldest first.
+ * A limit of 0 means unlimited.
+ */
+public final class RetentionPolicy {
+
+    /**
+     * Keeps all messages forever.
+     */
+    public static final RetentionPolicy UNLIMITED = new RetentionPolicy(0, 0, 0);
+
+    private final long maxMessages;
+    private final long maxAge;
+    private final long maxBytes;
+
+    /**
+     * @param maxMessages The maximum number of messages.
+     * @param maxAge The maximum age of a message in milliseconds.
+     * @param maxBytes The maximum estimated size of all messages in bytes, see {@link MessageLog#sizeOf(Message)}.
+     * @throws IllegalArgumentException If a limit is negative.
+     */
+    public RetentionPolicy(long maxMessages, long maxAge, long maxBytes) {
+        if (maxMessages < 0 || maxAge < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Retention limits must not be negative");
+        }
+        this.maxMessages = maxMessages;
+        this.maxAge = maxAge;
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxMessages() {
+        return maxMessages;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return <code>true</code>, if no limit is set.
+     */
+    public boolean isUnlimited() {
+        return maxMessages == 0 && maxAge == 0 && maxBytes == 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RetentionPolicy that = (RetentionPolicy) o;
+        return maxMessages == that.maxMessages &&
+                maxAge == that.maxAge &&
+                maxBytes == that.maxBytes;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxMessages, maxAge, maxBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "RetentionPolicy{maxMessages=" + maxMessages + ", maxAge=" + maxAge + ", maxBytes=" + maxBytes + '}';
+    }
+}
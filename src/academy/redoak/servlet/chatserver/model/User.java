@@ -9,6 +9,7 @@ public class User {
 
     private String id;
     private String name;
+    private volatile byte[] nameJson;
 
     public User() {
         // required for Jackson
@@ -33,6 +34,18 @@ public class User {
 
     public void setName(String name) {
         this.name = name;
+        this.nameJson = null;
+    }
+
+    /**
+     * @return The cached UTF-8 encoded JSON string of the name or <code>null</code>, if not created yet.
+     */
+    public byte[] getNameJson() {
+        return nameJson;
+    }
+
+    public void setNameJson(byte[] nameJson) {
+        this.nameJson = nameJson;
     }
 
     @Override
@@ -0,0 +1,74 @@
+package academy.redoak.servlet.chatserver.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns the authors of messages as integer handles, so stored messages hold a 4 byte handle instead of a
+ * reference to their {@link User}. The singleton instance may be retrieved by {@link #getInstance()}. <br/>
+ * Handles are never reused, so a removed user stays resolvable as author of its messages. Resolving a handle is a
+ * plain array read without any locking. <br/>
+ * Users are looked up by their id, which never changes, unlike their name, which is part of
+ * {@link User#equals(Object)}. <br/>
+ * Handle 0 is reserved for {@link #NOBODY}, so a slot of a message never written reads as written by nobody.
+ */
+public final class UserTable {
+
+    /**
+     * The author of empty slots, e.g. of messages lost in the write-ahead log.
+     */
+    public static final User NOBODY = new User("", "");
+
+    private final Map<String, Integer> handles = new ConcurrentHashMap<>();
+    private volatile User[] users = new User[64];
+    private int size = 1;
+
+    private UserTable() {
+        // private constructor due to singleton class
+        users[0] = NOBODY;
+        handles.put(NOBODY.getId(), 0);
+    }
+
+    /**
+     * @param user The user to get the handle for.
+     * @return The handle of given user, which is assigned on first use.
+     */
+    public int handle(User user) {
+        Integer handle = handles.get(user.getId());
+        return handle != null ? handle : add(user);
+    }
+
+    private synchronized int add(User user) {
+        Integer handle = handles.get(user.getId());
+        if (handle != null) {
+            return handle;
+        }
+        if (size == users.length) {
+            users = Arrays.copyOf(users, size * 2);
+        }
+        // written before the handle is handed out, so everyone knowing the handle sees the user
+        users[size] = user;
+        handles.put(user.getId(), size);
+        return size++;
+    }
+
+    /**
+     * @param handle A handle returned by {@link #handle(User)}.
+     * @return The user with given handle.
+     */
+    public User get(int handle) {
+        return users[handle];
+    }
+
+    // --- Singleton
+
+    private static UserTable instance = new UserTable();
+
+    /**
+     * @return The singleton instance.
+     */
+    public static UserTable getInstance() {
+        return instance;
+    }
+}
@@ -0,0 +1,202 @@
+package academy.redoak.servlet.chatserver.persistence;
+
+import academy.redoak.servlet.chatserver.model.ColdStorage;
+import academy.redoak.servlet.chatserver.model.Message;
+import academy.redoak.servlet.chatserver.model.MessageSegment;
+import academy.redoak.servlet.chatserver.model.UserTable;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * {@link ColdStorage} keeping messages in memory-mapped files, so they are neither on the heap nor scanned by the
+ * garbage collector. The files are only a cache of what the {@link WriteAheadLog} and its snapshots hold, so they
+ * are deleted on startup. <br/>
+ * Every stored segment is a block of the following format, with offsets relative to the block:
+ * <code>
+ *     int count | int[count] offsets | (long timestamp | int user | int length | byte[length] text)*
+ * </code>
+ * An empty slot, e.g. before the first sequence number of a restored log, is stored with a length of -1 and no text.
+ * Users are stored as their handle in the {@link UserTable}, which stays on the heap, as there are far less users
+ * than messages. <br/>
+ * A file is deleted, once all its segments are released. This relies on a deleted file staying readable through its
+ * mapping, until the mapping is garbage collected, which holds on Linux and other POSIX systems, as unlinking a file
+ * keeps its pages as long as they are mapped. On Windows, a mapped file cannot be deleted, so deleting fails with a
+ * warning and the file is only deleted on the next start.
+ */
+public class MappedColdStorage implements ColdStorage {
+
+    private static final Logger LOGGER = Logger.getLogger(MappedColdStorage.class.getName());
+
+    private static final String SUFFIX = ".cold";
+
+    /**
+     * The length stored for a slot without a message.
+     */
+    private static final int EMPTY_SLOT = -1;
+
+    private final Path directory;
+    private final int fileSize;
+
+    private MappedByteBuffer current;
+    private int currentFile = -1;
+    private int nextFile;
+    /**
+     * The number of segments not released yet by file number.
+     */
+    private final Map<Integer, Integer> liveSegments = new HashMap<>();
+    private ByteBuffer scratch = ByteBuffer.allocate(1 << 16);
+
+    /**
+     * @param directory The directory for the files, emptied on creation.
+     * @param fileSize The size of each file in bytes. Segments larger than this get a file of their own.
+     * @throws IOException Creating the directory or deleting old files may throw.
+     */
+    public MappedColdStorage(Path directory, int fileSize) throws IOException {
+        this.directory = directory;
+        this.fileSize = fileSize;
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(SUFFIX)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized Segment store(MessageSegment segment) {
+        ByteBuffer block = encode(segment);
+        if (current == null || current.remaining() < block.remaining()) {
+            int previous = currentFile;
+            currentFile = nextFile;
+            current = createFile(Math.max(fileSize, block.remaining()));
+            if (previous >= 0 && liveSegments.get(previous) == 0) {
+                delete(previous);
+            }
+        }
+        liveSegments.merge(currentFile, 1, Integer::sum);
+        ByteBuffer stored = current.slice();
+        stored.limit(block.remaining());
+        stored.put(block);
+        current.position(current.position() + stored.limit());
+        stored.flip();
+        return new MappedSegment(currentFile, segment.getFirstSequence(), stored.asReadOnlyBuffer());
+    }
+
+    private synchronized void release(int file) {
+        int live = liveSegments.merge(file, -1, Integer::sum);
+        if (live == 0 && file != currentFile) {
+            delete(file);
+        }
+    }
+
+    private void delete(int file) {
+        liveSegments.remove(file);
+        try {
+            Files.deleteIfExists(fileName(file));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to delete cold storage file " + fileName(file), e);
+        }
+    }
+
+    private Path fileName(int file) {
+        return directory.resolve(String.format("%010d%s", file, SUFFIX));
+    }
+
+    private ByteBuffer encode(MessageSegment segment) {
+        ByteBuffer buffer = scratch;
+        buffer.clear();
+        buffer.putInt(segment.size());
+        buffer.position(4 + 4 * segment.size());
+        for (int i = 0; i < segment.size(); i++) {
+            byte[] text = segment.getText(i);
+            int length = text != null ? text.length : 0;
+            if (buffer.remaining() < 16 + length) {
+                buffer = grow(buffer, 16 + length);
+            }
+            buffer.putInt(4 + 4 * i, buffer.position());
+            buffer.putLong(segment.getTimestamp(i));
+            buffer.putInt(segment.getUser(i));
+            if (text != null) {
+                buffer.putInt(text.length);
+                buffer.put(text);
+            } else {
+                buffer.putInt(EMPTY_SLOT);
+            }
+        }
+        scratch = buffer;
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private MappedByteBuffer createFile(int size) {
+        Path file = fileName(nextFile++);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create cold storage file " + file, e);
+        }
+    }
+
+    /**
+     * A stored block. Only uses absolute reads, so it may be read by many threads at once.
+     */
+    private final class MappedSegment implements Segment {
+
+        private final int file;
+        private final long firstSequence;
+        private final ByteBuffer block;
+
+        MappedSegment(int file, long firstSequence, ByteBuffer block) {
+            this.file = file;
+            this.firstSequence = firstSequence;
+            this.block = block;
+        }
+
+        @Override
+        public void release() {
+            MappedColdStorage.this.release(file);
+        }
+
+        @Override
+        public int getTextLength(int index) {
+            return block.getInt(block.getInt(4 + 4 * index) + 12);
+        }
+
+        @Override
+        public Message get(int index) {
+            int offset = block.getInt(4 + 4 * index);
+            long timestamp = block.getLong(offset);
+            int user = block.getInt(offset + 8);
+            int length = block.getInt(offset + 12);
+            byte[] text = new byte[Math.max(length, 0)];
+            if (length != EMPTY_SLOT) {
+                ByteBuffer view = block.duplicate();
+                view.position(offset + 16);
+                view.get(text);
+            }
+            return new Message(firstSequence + index, timestamp, UserTable.getInstance().get(user), text);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package academy.redoak.servlet.chatserver.persistence;
+
+import academy.redoak.servlet.chatserver.model.RetentionPolicy;
+import academy.redoak.servlet.chatserver.model.User;
+import academy.redoak.servlet.chatserver.service.AuthService;
+import academy.redoak.servlet.chatserver.service.ChatRoomService;
+import academy.redoak.servlet.chatserver.service.Journal;
+import academy.redoak.servlet.chatserver.service.RetentionSweeper;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Restores users, rooms and messages from the {@link WriteAheadLog} on startup, before any request is served, and
+ * journals all changes afterwards. Persistence is only enabled by the <code>walDirectory</code> context parameter.
+ * Without it, everything is kept in memory only and lost on shutdown, as a default directory like the temporary
+ * one may be cleaned up or shared with other servers. <br/>
+ * May be configured by the following context parameters:
+ * <code>
+ *     walDirectory          directory of the segment files, required for persistence (no default)
+ *     walSegmentSize        size of a segment file in bytes (default 67108864)
+ *     walFlushInterval      maximum milliseconds until appended records are forced to disk, 0 for forcing them before acknowledging every change (default 50)
+ *     walFlushBatch         number of pending records forcing them to disk right away (default 1000)
+ *     snapshotInterval      milliseconds between two snapshots, 0 for disabling them (default 300000)
+ *     hotMessages           number of recent messages per room kept on the heap, 0 for keeping all (default 10000)
+ *     coldDirectory         directory of the files holding older messages (default: cold in walDirectory)
+ *     coldFileSize          size of a file holding older messages in bytes (default 67108864)
+ *     retentionMaxMessages  default maximum number of messages per room, 0 for unlimited (default 0)
+ *     retentionMaxAge       default maximum age of messages in milliseconds, 0 for unlimited (default 0)
+ *     retentionMaxBytes     default maximum estimated size of the messages per room in bytes, 0 for unlimited (default 0)
+ *     retentionInterval     milliseconds between two sweeps evicting messages, 0 for never evicting (default 10000)
+ *     retentionMaxEvictions maximum number of messages evicted per room and sweep (default 10000)
+ * </code>
+ * The parameters of the log, the snapshots and the cold storage only apply with a <code>walDirectory</code>, so
+ * without persistence, the whole history of every room stays on the heap. Older messages are moved to the cold
+ * storage by a background thread, not by the posting ones. The retention limits apply to all rooms created without
+ * limits of their own, with or without persistence. The {@link RetentionSweeper} is started after restoring, so
+ * restored rooms are trimmed by its first sweep. <br/>
+ * On shutdown, a final snapshot is written, so the next start does not need to replay the log.
+ */
+@WebListener
+public class PersistenceListener implements ServletContextListener {
+
+    private static final Logger LOGGER = Logger.getLogger(PersistenceListener.class.getName());
+
+    private WriteAheadLog log;
+    private Snapshotter snapshotter;
+    private ExecutorService spiller;
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        ServletContext context = sce.getServletContext();
+        String directory = context.getInitParameter("walDirectory");
+        if (directory != null && !directory.trim().isEmpty()) {
+            startPersistence(context, Paths.get(directory.trim()));
+        } else {
+            context.log("No walDirectory given, users, rooms and messages are kept in memory only");
+        }
+
+        ChatRoomService chatRoomService = ChatRoomService.getInstance();
+        chatRoomService.setDefaultRetention(new RetentionPolicy(
+                getLongParameter(context, "retentionMaxMessages", 0),
+                getLongParameter(context, "retentionMaxAge", 0),
+                getLongParameter(context, "retentionMaxBytes", 0)));
+        int retentionInterval = getIntParameter(context, "retentionInterval", 10000);
+        if (retentionInterval > 0) {
+            RetentionSweeper.getInstance().start(retentionInterval,
+                    getIntParameter(context, "retentionMaxEvictions", 10000));
+        }
+    }
+
+    private void startPersistence(ServletContext context, Path path) {
+        log = new WriteAheadLog(path,
+                getIntParameter(context, "walSegmentSize", 64 * 1024 * 1024),
+                getIntParameter(context, "walFlushInterval", 50),
+                getIntParameter(context, "walFlushBatch", 1000));
+
+        WalJournal journal = new WalJournal(log);
+        AuthService authService = AuthService.getInstance();
+        ChatRoomService chatRoomService = ChatRoomService.getInstance();
+        snapshotter = new Snapshotter(path, log, authService, chatRoomService);
+        try {
+            int hotMessages = getIntParameter(context, "hotMessages", 10000);
+            if (hotMessages > 0) {
+                String coldDirectory = context.getInitParameter("coldDirectory");
+                spiller = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "cold-spiller");
+                    thread.setDaemon(true);
+                    thread.setUncaughtExceptionHandler((t, e) ->
+                            LOGGER.log(Level.SEVERE, "Failed to move messages to cold storage", e));
+                    return thread;
+                });
+                chatRoomService.setColdStorage(new MappedColdStorage(
+                        coldDirectory != null ? Paths.get(coldDirectory) : path.resolve("cold"),
+                        getIntParameter(context, "coldFileSize", 64 * 1024 * 1024)), hotMessages, spiller);
+            }
+
+            long start = System.nanoTime();
+            Map<String, User> users = new HashMap<>();
+            long segment = snapshotter.restore(users);
+            long records = journal.replay(authService, chatRoomService, users, segment);
+            log.start();
+            context.log("Restored snapshot and " + records + " records from " + path + " in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to restore from write-ahead log " + path, e);
+        }
+        authService.setJournal(journal);
+        chatRoomService.setJournal(journal);
+
+        int snapshotInterval = getIntParameter(context, "snapshotInterval", 300000);
+        if (snapshotInterval > 0) {
+            snapshotter.start(snapshotInterval);
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        RetentionSweeper.getInstance().stop();
+        AuthService.getInstance().setJournal(Journal.NONE);
+        ChatRoomService.getInstance().setJournal(Journal.NONE);
+        if (snapshotter != null) {
+            snapshotter.close();
+        }
+        if (log != null) {
+            log.close();
+        }
+        if (spiller != null) {
+            spiller.shutdown();
+        }
+    }
+
+    private static int getIntParameter(ServletContext context, String name, int defaultValue) {
+        String value = context.getInitParameter(name);
+        return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    private static long getLongParameter(ServletContext context, String name, long defaultValue) {
+        String value = context.getInitParameter(name);
+        return value != null ? Long.parseLong(value.trim()) : defaultValue;
+    }
+}
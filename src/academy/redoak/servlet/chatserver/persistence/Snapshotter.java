@@ -0,0 +1,364 @@
+package academy.redoak.servlet.chatserver.persistence;
+
+import academy.redoak.servlet.chatserver.model.ChatRoom;
+import academy.redoak.servlet.chatserver.model.Message;
+import academy.redoak.servlet.chatserver.model.MessageLog;
+import academy.redoak.servlet.chatserver.model.RetentionPolicy;
+import academy.redoak.servlet.chatserver.model.User;
+import academy.redoak.servlet.chatserver.service.AuthService;
+import academy.redoak.servlet.chatserver.service.ChatRoomService;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes snapshots of the state of {@link AuthService} and {@link ChatRoomService} in the background and deletes
+ * the {@link WriteAheadLog} segments covered by them. Restarting then only needs the latest snapshot and the segments
+ * written afterwards. <br/>
+ * Taking a snapshot never blocks appending: the log is rolled to a new segment first, then the state is read from
+ * the message logs, whose readers never wait. Changes done meanwhile are contained in both, the snapshot and the
+ * new segments, which is fine, as replaying skips what is already there. <br/>
+ * A snapshot is a single file named after the first segment not covered by it. Numbers are stored as variable
+ * length integers, timestamps as difference to the previous message and authors as index into the users written
+ * before:
+ * <code>
+ *     int magic | int version | long segment
+ *     users: count, (id, name)*
+ *     rooms: count, (id, name, retention, long first sequence, message count, (timestamp delta, author, text)*)*
+ *     int crc32
+ * </code>
+ * An author of 0 is followed by the id and name of a user not written before, e.g. a removed one. The retention is
+ * a 0 for rooms without one of their own, otherwise a 1 followed by the maximum messages, age and bytes.
+ */
+public class Snapshotter implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(Snapshotter.class.getName());
+
+    private static final int MAGIC = 0x43534E50; // "CSNP"
+    private static final int FORMAT_VERSION = 1;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    private final Path directory;
+    private final WriteAheadLog log;
+    private final AuthService authService;
+    private final ChatRoomService chatRoomService;
+
+    private ScheduledExecutorService executor;
+    private long appendedAtSnapshot = -1;
+
+    public Snapshotter(Path directory, WriteAheadLog log, AuthService authService, ChatRoomService chatRoomService) {
+        this.directory = directory;
+        this.log = log;
+        this.authService = authService;
+        this.chatRoomService = chatRoomService;
+    }
+
+    /**
+     * Restores the services from the latest valid snapshot, if there is one.
+     *
+     * @param users Receives all restored users by id, including removed ones.
+     * @return The number of the first {@link WriteAheadLog} segment not covered by the snapshot, 0 without snapshot.
+     * @throws IOException Reading the snapshot files may throw.
+     */
+    public long restore(Map<String, User> users) throws IOException {
+        List<Path> files = snapshotFiles();
+        Collections.reverse(files);
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (!isValid(buffer)) {
+                    LOGGER.warning("Skipping invalid snapshot " + file);
+                    continue;
+                }
+                return read(buffer, users);
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isValid(ByteBuffer buffer) {
+        if (buffer.remaining() < 20 || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != FORMAT_VERSION) {
+            return false;
+        }
+        int end = buffer.limit() - 4;
+        ByteBuffer content = buffer.duplicate();
+        content.limit(end);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return (int) crc.getValue() == buffer.getInt(end);
+    }
+
+    private long read(ByteBuffer buffer, Map<String, User> users) {
+        buffer.position(8);
+        long segment = buffer.getLong();
+        List<User> authors = new ArrayList<>();
+        int userCount = (int) readNumber(buffer);
+        for (int i = 0; i < userCount; i++) {
+            User user = new User(readString(buffer), readString(buffer));
+            authors.add(user);
+            users.put(user.getId(), user);
+            authService.restore(user);
+        }
+        int roomCount = (int) readNumber(buffer);
+        for (int i = 0; i < roomCount; i++) {
+            String id = readString(buffer);
+            String name = readString(buffer);
+            RetentionPolicy retention = null;
+            if (buffer.get() != 0) {
+                retention = new RetentionPolicy(readNumber(buffer), readNumber(buffer), readNumber(buffer));
+            }
+            ChatRoom chatRoom = chatRoomService.restoreChatRoom(id, name, retention);
+            long sequence = buffer.getLong();
+            if (sequence > 1) {
+                // the messages before were evicted
+                chatRoom.getMessageLog().restoreFirstSequence(sequence);
+            }
+            long count = readNumber(buffer);
+            long timestamp = 0;
+            for (long j = 0; j < count; j++) {
+                timestamp += readSignedNumber(buffer);
+                int author = (int) readNumber(buffer);
+                User user;
+                if (author == 0) {
+                    user = new User(readString(buffer), readString(buffer));
+                    authors.add(user);
+                    users.put(user.getId(), user);
+                } else {
+                    user = authors.get(author - 1);
+                }
+                chatRoom.restoreMessage(new Message(sequence++, timestamp, user, readBytes(buffer)));
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Starts writing snapshots periodically.
+     *
+     * @param interval The delay between two snapshots in milliseconds.
+     */
+    public void start(long interval) {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Failed to write snapshot", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes a snapshot of the current state and deletes the {@link WriteAheadLog} segments and snapshots covered
+     * by it. Does nothing, if nothing changed since the last snapshot.
+     *
+     * @throws IOException Writing the snapshot or deleting the old files may throw.
+     */
+    public synchronized void snapshot() throws IOException {
+        long appended = log.getAppended();
+        if (appended == appendedAtSnapshot) {
+            return;
+        }
+        long start = System.nanoTime();
+        long segment = log.roll();
+        // every room and user journaled before rolling is contained
+        List<ChatRoom> rooms = chatRoomService.getJournaledRooms();
+        Path file = directory.resolve(String.format("%s%020d%s", PREFIX, segment, SUFFIX));
+        Path temporary = directory.resolve(file.getFileName() + ".tmp");
+        long messages = 0;
+        try (FileOutputStream fileOut = new FileOutputStream(temporary.toFile())) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(
+                    new CheckedOutputStream(new BufferedOutputStream(fileOut, 1 << 16), crc));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(segment);
+
+            Map<User, Integer> authors = new IdentityHashMap<>();
+            List<User> users = authService.getUsers();
+            writeNumber(out, users.size());
+            for (User user : users) {
+                authors.put(user, authors.size() + 1);
+                writeString(out, user.getId());
+                writeString(out, user.getName());
+            }
+
+            writeNumber(out, rooms.size());
+            for (ChatRoom chatRoom : rooms) {
+                MessageLog messageLog = chatRoom.getMessageLog();
+                // every message journaled before rolling is published afterwards
+                long last = messageLog.awaitPublished();
+                List<Message> range = messageLog.range(messageLog.firstSequence(), last);
+                writeString(out, chatRoom.getId());
+                writeString(out, chatRoom.getName());
+                RetentionPolicy retention = chatRoom.getRetention();
+                if (retention == null) {
+                    out.writeByte(0);
+                } else {
+                    out.writeByte(1);
+                    writeNumber(out, retention.getMaxMessages());
+                    writeNumber(out, retention.getMaxAge());
+                    writeNumber(out, retention.getMaxBytes());
+                }
+                out.writeLong(range.isEmpty() ? last + 1 : range.get(0).getSequence());
+                writeNumber(out, range.size());
+                long timestamp = 0;
+                for (Message message : range) {
+                    writeSignedNumber(out, message.getTimestamp() - timestamp);
+                    timestamp = message.getTimestamp();
+                    Integer author = authors.get(message.getUser());
+                    if (author != null) {
+                        writeNumber(out, author);
+                    } else {
+                        authors.put(message.getUser(), authors.size() + 1);
+                        writeNumber(out, 0);
+                        writeString(out, message.getUser().getId());
+                        writeString(out, message.getUser().getName());
+                    }
+                    writeBytes(out, message.getText());
+                }
+                messages += range.size();
+            }
+            out.flush();
+            // the checksum itself is not part of the checked content
+            new DataOutputStream(fileOut).writeInt((int) crc.getValue());
+            fileOut.getChannel().force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        for (Path old : snapshotFiles()) {
+            if (!old.equals(file)) {
+                Files.deleteIfExists(old);
+            }
+        }
+        int deleted = log.truncate(segment);
+        appendedAtSnapshot = appended;
+        LOGGER.info("Wrote snapshot of " + rooms.size() + " rooms and " + messages + " messages in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms, deleted " + deleted + " log segments");
+    }
+
+    /**
+     * Stops writing snapshots periodically and writes a final one, so the next start needs no log replay.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to write final snapshot", e);
+        }
+    }
+
+    /**
+     * Makes the renaming of the snapshot durable. Not supported on every platform, which is tolerated.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory)) {
+            channel.force(true);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot sync directory " + directory, e);
+        }
+    }
+
+    private List<Path> snapshotFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> {
+                String name = f.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        writeNumber(out, value.length);
+        out.write(value);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        return new String(readBytes(buffer), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[(int) readNumber(buffer)];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a non-negative number in 7 bit groups, least significant first, with the high bit set on all but the
+     * last byte.
+     */
+    private static void writeNumber(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readNumber(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed number in snapshot");
+    }
+
+    /**
+     * Writes a possibly negative number zig-zag encoded, so small negative numbers stay short.
+     */
+    private static void writeSignedNumber(DataOutputStream out, long value) throws IOException {
+        writeNumber(out, (value << 1) ^ (value >> 63));
+    }
+
+    private static long readSignedNumber(ByteBuffer buffer) {
+        long value = readNumber(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,229 @@
+package academy.redoak.servlet.chatserver.persistence;
+
+import academy.redoak.servlet.chatserver.model.ChatRoom;
+import academy.redoak.servlet.chatserver.model.Message;
+import academy.redoak.servlet.chatserver.model.MessageLog;
+import academy.redoak.servlet.chatserver.model.RetentionPolicy;
+import academy.redoak.servlet.chatserver.model.User;
+import academy.redoak.servlet.chatserver.service.AuthService;
+import academy.redoak.servlet.chatserver.service.ChatRoomService;
+import academy.redoak.servlet.chatserver.service.Journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * {@link Journal} writing every change into a {@link WriteAheadLog} and restoring the services from it. <br/>
+ * Strings are stored as their UTF-8 length followed by the bytes, numbers in big endian:
+ * <code>
+ *     USER:         id, name
+ *     USER_REMOVED: id
+ *     ROOM:         id, name[, long max messages, long max age, long max bytes]
+ *     MESSAGE:      room id, long sequence, long timestamp, user id, text
+ * </code>
+ * The retention of a room is only written, if it has one of its own. <br/>
+ * Users and rooms are synced right away, messages only by {@link #sync()}, see {@link WriteAheadLog#sync()}.
+ */
+public class WalJournal implements Journal {
+
+    private static final Logger LOGGER = Logger.getLogger(WalJournal.class.getName());
+
+    static final byte USER = 1;
+    static final byte USER_REMOVED = 2;
+    static final byte ROOM = 3;
+    static final byte MESSAGE = 4;
+
+    /**
+     * The number of messages of a room, which are held back at most during replay, while waiting for a missing one.
+     */
+    static final int REORDER_WINDOW = 1024;
+
+    private final WriteAheadLog log;
+
+    public WalJournal(WriteAheadLog log) {
+        this.log = log;
+    }
+
+    @Override
+    public void userRegistered(User user) {
+        log.append(USER, new RecordWriter().string(user.getId()).string(user.getName()).toBytes());
+        log.sync();
+    }
+
+    @Override
+    public void userUnregistered(User user) {
+        log.append(USER_REMOVED, new RecordWriter().string(user.getId()).toBytes());
+        log.sync();
+    }
+
+    @Override
+    public void roomCreated(ChatRoom chatRoom) {
+        RecordWriter record = new RecordWriter().string(chatRoom.getId()).string(chatRoom.getName());
+        RetentionPolicy retention = chatRoom.getRetention();
+        if (retention != null) {
+            record.number(retention.getMaxMessages()).number(retention.getMaxAge()).number(retention.getMaxBytes());
+        }
+        log.append(ROOM, record.toBytes());
+        log.sync();
+    }
+
+    @Override
+    public void messageAppended(ChatRoom chatRoom, Message message) {
+        log.append(MESSAGE, new RecordWriter()
+                .string(chatRoom.getId())
+                .number(message.getSequence())
+                .number(message.getTimestamp())
+                .string(message.getUser().getId())
+                .bytes(message.getText())
+                .toBytes());
+    }
+
+    @Override
+    public void sync() {
+        log.sync();
+    }
+
+    /**
+     * Restores users, rooms and messages from the {@link WriteAheadLog} into given services. Must be done before
+     * setting this journal at the services, as restoring is not journaled again. <br/>
+     * Replaying is idempotent, so records already contained in a snapshot restored before are skipped. <br/>
+     * Messages of a room are appended concurrently, so their records are not strictly in sequence order. They are
+     * held back until the messages before are restored. Messages still missing after {@value #REORDER_WINDOW}
+     * later ones, or at the end of the log, are skipped.
+     *
+     * @param authService The service to restore the users into.
+     * @param chatRoomService The service to restore the rooms and messages into.
+     * @param users All known users by id, including removed ones, as they are still the authors of their messages.
+     *              Restored users are added.
+     * @param fromSegment The number of the first segment to replay, 0 for replaying all.
+     * @return The number of records read.
+     * @throws IOException Reading the {@link WriteAheadLog} may throw.
+     */
+    public long replay(AuthService authService, ChatRoomService chatRoomService, Map<String, User> users,
+                       long fromSegment) throws IOException {
+        Map<ChatRoom, TreeMap<Long, Message>> pending = new HashMap<>();
+        long records = log.replay(fromSegment, (type, payload) -> {
+            switch (type) {
+                case USER: {
+                    String id = readString(payload);
+                    String name = readString(payload);
+                    User user = users.computeIfAbsent(id, i -> new User(i, name));
+                    // a message of the user may have been journaled before its registration
+                    user.setName(name);
+                    authService.restore(user);
+                    break;
+                }
+                case USER_REMOVED: {
+                    Optional<User> user = authService.getUser(readString(payload));
+                    user.ifPresent(authService::unregister);
+                    break;
+                }
+                case ROOM: {
+                    String id = readString(payload);
+                    String name = readString(payload);
+                    RetentionPolicy retention = payload.hasRemaining()
+                            ? new RetentionPolicy(payload.getLong(), payload.getLong(), payload.getLong())
+                            : null;
+                    if (!chatRoomService.getChatRoom(id).isPresent()) {
+                        chatRoomService.restoreChatRoom(id, name, retention);
+                    }
+                    break;
+                }
+                case MESSAGE: {
+                    Optional<ChatRoom> chatRoom = chatRoomService.getChatRoom(readString(payload));
+                    long sequence = payload.getLong();
+                    long timestamp = payload.getLong();
+                    User user = users.computeIfAbsent(readString(payload), id -> new User(id, "unknown"));
+                    Message message = new Message(sequence, timestamp, user, readBytes(payload));
+                    if (chatRoom.isPresent()) {
+                        TreeMap<Long, Message> waiting = pending.computeIfAbsent(chatRoom.get(), c -> new TreeMap<>());
+                        waiting.put(sequence, message);
+                        restorePending(chatRoom.get(), waiting, REORDER_WINDOW);
+                    }
+                    break;
+                }
+                default:
+                    LOGGER.warning("Skipping record of unknown type " + type);
+            }
+        });
+        pending.forEach((chatRoom, waiting) -> restorePending(chatRoom, waiting, 0));
+        return records;
+    }
+
+    /**
+     * Restores the waiting messages following the last one of given room. If more than given number of messages are
+     * waiting, the missing ones before are skipped, e.g. the ones of a torn segment tail or whose records could not
+     * be written. They are logged and read as empty messages afterwards, instead of failing the startup.
+     */
+    private static void restorePending(ChatRoom chatRoom, TreeMap<Long, Message> waiting, int window) {
+        MessageLog messages = chatRoom.getMessageLog();
+        while (!waiting.isEmpty()) {
+            long expected = messages.lastSequence() + 1;
+            long sequence = waiting.firstKey();
+            if (sequence > expected) {
+                if (waiting.size() <= window) {
+                    return;
+                }
+                LOGGER.warning("Messages " + expected + " to " + (sequence - 1) + " of chat room "
+                        + chatRoom.getId() + " are missing in the write-ahead log, skipping them");
+                messages.restoreGap(sequence);
+            }
+            chatRoom.restoreMessage(waiting.pollFirstEntry().getValue());
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        return new String(readBytes(buffer), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Collects the fields of a record.
+     */
+    private static final class RecordWriter {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(128);
+
+        RecordWriter string(String value) {
+            return bytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        RecordWriter bytes(byte[] value) {
+            ensure(4 + value.length).putInt(value.length).put(value);
+            return this;
+        }
+
+        RecordWriter number(long value) {
+            ensure(8).putLong(value);
+            return this;
+        }
+
+        byte[] toBytes() {
+            byte[] bytes = new byte[buffer.position()];
+            buffer.flip();
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        private ByteBuffer ensure(int size) {
+            if (buffer.remaining() < size) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package academy.redoak.servlet.chatserver.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of binary records in memory-mapped segment files. <br/>
+ * Appending a record only copies it into the mapped segment, so it never waits for the disk. A background thread
+ * forces the written records to disk (group commit), as soon as <code>flushBatch</code> records are pending or
+ * <code>flushInterval</code> milliseconds have passed. Thus, at most the records of the last interval may get lost on
+ * a crash of the machine. With a <code>flushInterval</code> of 0, the appending thread forces the records by
+ * {@link #sync()} instead, after it appended them and outside of any lock ordering the appends. <br/>
+ * The background thread also creates the next segment file ahead of time, so an append filling a segment only
+ * switches over to the next one instead of creating and mapping a file. <br/>
+ * Each segment file starts with a header and is filled with records of the following format:
+ * <code>
+ *     int length | int crc32 | byte type | byte[length] payload
+ * </code>
+ * The files are zero-filled when created, so a length of 0 marks the end of the written records. Reading stops at
+ * the first record with an invalid checksum, e.g. a record torn by a crash. <br/>
+ * Segments are numbered in order of creation. Once a snapshot covers all records before a segment, the older
+ * segments may be deleted by {@link #truncate(long)}.
+ */
+public class WriteAheadLog implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(WriteAheadLog.class.getName());
+
+    private static final int MAGIC = 0x4357414C; // "CWAL"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_OVERHEAD = 9;
+    private static final String SUFFIX = ".wal";
+
+    /**
+     * Handles the records read by {@link #replay(RecordHandler)}.
+     */
+    public interface RecordHandler {
+
+        /**
+         * @param type The type of the record, as passed to {@link #append(byte, byte[])}.
+         * @param payload The payload of the record, only valid during this call.
+         */
+        void record(byte type, ByteBuffer payload);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long flushInterval;
+    private final int flushBatch;
+
+    private final Object flushLock = new Object();
+    private final Object syncLock = new Object();
+    /**
+     * Full segments, which still need to be forced to disk. Mappings are released by the garbage collector.
+     */
+    private final List<MappedByteBuffer> rolled = new ArrayList<>();
+    private MappedByteBuffer current;
+    private long currentSegment;
+    /**
+     * The segment created ahead of time, which follows the current one.
+     */
+    private MappedByteBuffer spare;
+    private long spareSegment;
+    private boolean preallocating;
+    private long nextSegment;
+    private long appended;
+    private long flushed;
+    private volatile boolean running;
+    private Thread flusher;
+
+    /**
+     * @param directory The directory containing the segment files. Created, if missing.
+     * @param segmentSize The size of each segment file in bytes.
+     * @param flushInterval The maximum time in milliseconds between forcing records to disk, 0 for forcing them
+     *                      on every {@link #sync()}.
+     * @param flushBatch The number of pending records, which causes forcing them to disk right away.
+     */
+    public WriteAheadLog(Path directory, int segmentSize, long flushInterval, int flushBatch) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.flushInterval = flushInterval;
+        this.flushBatch = flushBatch;
+    }
+
+    /**
+     * Reads all valid records of the segments starting with given one in order of appending. Must be called before
+     * {@link #start()}.
+     *
+     * @param fromSegment The number of the first segment to read, 0 for reading all.
+     * @param handler The handler to pass every record to.
+     * @return The number of records read.
+     * @throws IOException Reading the segment files may throw.
+     */
+    public long replay(long fromSegment, RecordHandler handler) throws IOException {
+        Files.createDirectories(directory);
+        long count = 0;
+        nextSegment = Math.max(nextSegment, fromSegment);
+        for (Path file : segmentFiles()) {
+            if (segmentNumber(file) < fromSegment) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(file)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                    LOGGER.warning("Skipping " + file + ", which is no write-ahead log segment");
+                    continue;
+                }
+                while (readRecord(buffer, handler)) {
+                    count++;
+                }
+                nextSegment = segmentNumber(file) + 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the record at the position of given buffer and advances it behind the record.
+     *
+     * @return <code>false</code>, if there is no further valid record.
+     */
+    private static boolean readRecord(ByteBuffer buffer, RecordHandler handler) {
+        if (buffer.remaining() < RECORD_OVERHEAD) {
+            return false;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining() - 1) {
+            buffer.position(start);
+            return false;
+        }
+        byte type = buffer.get();
+        ByteBuffer payload = buffer.slice();
+        payload.limit(length);
+        if (checksum != checksum(type, payload)) {
+            LOGGER.warning("Skipping rest of segment after torn record at position " + start);
+            buffer.position(start);
+            return false;
+        }
+        handler.record(type, payload.asReadOnlyBuffer());
+        buffer.position(buffer.position() + length);
+        return true;
+    }
+
+    /**
+     * Starts a new segment for appending records and starts the background flusher. Segments of earlier runs are
+     * never written again.
+     *
+     * @throws IOException Creating the segment file may throw.
+     */
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        synchronized (this) {
+            currentSegment = nextSegment++;
+            current = createSegment(currentSegment);
+        }
+        running = true;
+        flusher = new Thread(this::runFlusher, "wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Appends a record. Returns as soon as the record is in the mapped segment, without waiting for the disk.
+     *
+     * @param type The type of the record, for telling records apart when reading them.
+     * @param payload The content of the record.
+     * @throws IllegalArgumentException If the record does not fit into a segment.
+     * @throws UncheckedIOException If a new segment cannot be created.
+     */
+    public void append(byte type, byte[] payload) {
+        int size = RECORD_OVERHEAD + payload.length;
+        if (size > segmentSize - HEADER_SIZE) {
+            throw new IllegalArgumentException("Record of " + payload.length + " bytes exceeds segment size");
+        }
+        long pending;
+        synchronized (this) {
+            if (!running) {
+                throw new IllegalStateException("Write-ahead log is not running");
+            }
+            if (current.remaining() < size) {
+                openNextSegment();
+            }
+            MappedByteBuffer buffer = current;
+            int start = buffer.position();
+            buffer.position(start + 4);
+            buffer.putInt(checksum(type, ByteBuffer.wrap(payload)));
+            buffer.put(type);
+            buffer.put(payload);
+            // the length comes last, so readers never see a record without its content
+            buffer.putInt(start, payload.length);
+            pending = ++appended - flushed;
+        }
+        if (flushInterval > 0 && pending >= flushBatch) {
+            synchronized (flushLock) {
+                flushLock.notify();
+            }
+        }
+    }
+
+    /**
+     * Forces all records appended so far to disk, if the <code>flushInterval</code> is 0. Otherwise returns at
+     * once, as the background thread forces them within the interval. <br/>
+     * Threads syncing at the same time share a single force, so records appended meanwhile are forced along.
+     */
+    public void sync() {
+        if (flushInterval > 0) {
+            return;
+        }
+        long target;
+        synchronized (this) {
+            target = appended;
+        }
+        synchronized (syncLock) {
+            if (getFlushed() < target) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Forces all records appended so far to disk.
+     */
+    public void flush() {
+        MappedByteBuffer segment;
+        List<MappedByteBuffer> done;
+        long target;
+        synchronized (this) {
+            if (current == null) {
+                return;
+            }
+            segment = current;
+            done = new ArrayList<>(rolled);
+            rolled.clear();
+            target = appended;
+        }
+        for (MappedByteBuffer old : done) {
+            old.force();
+        }
+        segment.force();
+        synchronized (this) {
+            flushed = Math.max(flushed, target);
+        }
+    }
+
+    /**
+     * Continues appending in a new segment, so all records appended afterwards are in segments with a number not
+     * less than the returned one.
+     *
+     * @return The number of the new segment.
+     * @throws UncheckedIOException If the new segment cannot be created.
+     */
+    public synchronized long roll() {
+        if (!running) {
+            throw new IllegalStateException("Write-ahead log is not running");
+        }
+        openNextSegment();
+        return currentSegment;
+    }
+
+    /**
+     * Deletes all segments with a number less than given one. Their records must not be needed any more.
+     *
+     * @param segment The number of the first segment to keep.
+     * @return The number of deleted segments.
+     * @throws IOException Listing or deleting the segment files may throw.
+     */
+    public int truncate(long segment) throws IOException {
+        int deleted = 0;
+        for (Path file : segmentFiles()) {
+            if (segmentNumber(file) < segment && Files.deleteIfExists(file)) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return The number of records appended since {@link #start()}.
+     */
+    public synchronized long getAppended() {
+        return appended;
+    }
+
+    /**
+     * @return The number of records appended since {@link #start()}, which are not forced to disk yet.
+     */
+    public synchronized long getPending() {
+        return appended - flushed;
+    }
+
+    private synchronized long getFlushed() {
+        return flushed;
+    }
+
+    /**
+     * Creates the next segment ahead of time and, unless the <code>flushInterval</code> is 0, forces the
+     * appended records to disk periodically.
+     */
+    private void runFlusher() {
+        while (running) {
+            try {
+                preallocate();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Failed to create next write-ahead log segment", e);
+            }
+            try {
+                if (flushInterval <= 0) {
+                    awaitSpareTaken();
+                    continue;
+                }
+                synchronized (flushLock) {
+                    if (getPending() < flushBatch) {
+                        flushLock.wait(flushInterval);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Failed to flush write-ahead log", e);
+            }
+        }
+    }
+
+    /**
+     * Waits until the spare segment is taken, or retries creating it after a second, if that failed.
+     */
+    private synchronized void awaitSpareTaken() throws InterruptedException {
+        if (running) {
+            wait(spare != null ? 0 : 1000);
+        }
+    }
+
+    /**
+     * Creates the spare segment, if there is none. The file is created without holding the lock of appending.
+     */
+    private void preallocate() {
+        long number;
+        synchronized (this) {
+            if (spare != null || !running) {
+                return;
+            }
+            number = nextSegment++;
+            preallocating = true;
+        }
+        MappedByteBuffer created = null;
+        try {
+            created = createSegment(number);
+        } finally {
+            synchronized (this) {
+                spare = created;
+                spareSegment = number;
+                preallocating = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Stops the flusher and forces all appended records to disk.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (flusher != null) {
+            flusher.interrupt();
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        synchronized (this) {
+            current = null;
+            spare = null;
+        }
+    }
+
+    /**
+     * Switches over to the spare segment, or creates the next one right away, if there is no spare. Must be called
+     * holding the lock of this log.
+     */
+    private void openNextSegment() {
+        boolean interrupted = false;
+        // a segment being created ahead of time has the next number, so it has to be used next
+        while (preallocating) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        rolled.add(current);
+        if (spare != null) {
+            current = spare;
+            currentSegment = spareSegment;
+            spare = null;
+        } else {
+            currentSegment = nextSegment++;
+            current = createSegment(currentSegment);
+        }
+        // wakes the background thread for creating the next spare
+        notifyAll();
+    }
+
+    private MappedByteBuffer createSegment(long number) {
+        Path file = directory.resolve(String.format("%020d%s", number, SUFFIX));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(segmentSize);
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.putInt(MAGIC);
+            buffer.putInt(FORMAT_VERSION);
+            return buffer;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create write-ahead log segment " + file, e);
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(SUFFIX)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    private static int checksum(byte type, ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+}
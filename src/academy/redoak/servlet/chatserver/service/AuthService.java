@@ -5,37 +5,60 @@ import academy.redoak.servlet.chatserver.model.User;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Singleton service offering methods for registering and unregistering users. Singleton instance may be retrieved
- * by {@link #getInstance()}.
+ * by {@link #getInstance()}. <br/>
+ * Users are indexed by id and by name in concurrent maps, so lookups take constant time and the service may be
+ * used from any servlet thread. <br/>
+ * Registrations are recorded in the {@link Journal} set by {@link #setJournal(Journal)}.
  */
 public class AuthService {
 
-    private List<User> users;
+    private Map<String, User> usersById;
+    private Map<String, User> usersByName;
+    private volatile Journal journal = Journal.NONE;
 
     private AuthService() {
-        this.users = new ArrayList<>();
+        this.usersById = new ConcurrentHashMap<>();
+        this.usersByName = new ConcurrentHashMap<>();
     }
 
     /**
-     * Registers a new user with given username.
+     * Registers a new user with given username. <br/>
+     * The user is put by its id before claiming the name, so whoever finds a user by name, e.g. a concurrent
+     * registration of the same name, finds it by its id, too. It is journaled afterwards without any lock, like
+     * messages, so registrations never wait for each other's journaling. Something done by the user meanwhile may be
+     * journaled before its registration, which replaying copes with.
      *
      * @param username The user name to register.
      * @return If name is already taken, the existing user is returned, otherwise a
      *      new one is created.
      */
     public User register(String username) {
-        Optional<User> optional = this.users.stream().filter(user -> user.getName().equals(username)).findFirst();
-        if(optional.isPresent()) {
-            return optional.get();
-        } else {
-            User user = new User(UUID.randomUUID().toString(), username);
-            this.users.add(user);
-            return user;
+        User existing = this.usersByName.get(username);
+        if (existing != null) {
+            return existing;
         }
+        User user = new User(UUID.randomUUID().toString(), username);
+        this.usersById.put(user.getId(), user);
+        existing = this.usersByName.putIfAbsent(username, user);
+        if (existing != null) {
+            this.usersById.remove(user.getId(), user);
+            return existing;
+        }
+        try {
+            journal.userRegistered(user);
+        } catch (RuntimeException e) {
+            this.usersByName.remove(username, user);
+            this.usersById.remove(user.getId(), user);
+            throw e;
+        }
+        return user;
     }
 
     /**
@@ -44,15 +67,57 @@ public class AuthService {
      * @param user The user to be unregistered.
      */
     public void unregister(User user) {
+        if (this.usersById.remove(user.getId(), user)) {
+            this.usersByName.remove(user.getName(), user);
+            journal.userUnregistered(user);
+        }
         user.setName(user.getName() + " (removed)");
-        this.users.remove(user);
     }
 
     /**
-     * @return An unmodifiable list of registeres users. For modification see other methods.
+     * Puts a previously registered user back into the application, e.g. when restoring it from disk. The
+     * {@link Journal} is not called.
+     *
+     * @param user The user to restore.
+     */
+    public void restore(User user) {
+        this.usersById.put(user.getId(), user);
+        this.usersByName.put(user.getName(), user);
+    }
+
+    /**
+     * Sets the {@link Journal} for recording registrations from now on.
+     *
+     * @param journal The journal, {@link Journal#NONE} for recording nothing.
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Searches for the {@link User} with given id.
+     *
+     * @param id The id to look for.
+     * @return An {@link Optional<User>}, which may contain the found user or may be empty, if there is no
+     * user with given id.
+     */
+    public Optional<User> getUser(String id) {
+        return Optional.ofNullable(this.usersById.get(id));
+    }
+
+    /**
+     * @return An unmodifiable snapshot of registered users. For modification see other methods. It contains every
+     * user already passed to the {@link Journal}, as users are added before being journaled.
      */
     public List<User> getUsers() {
-        return Collections.unmodifiableList(users);
+        return Collections.unmodifiableList(new ArrayList<>(usersById.values()));
+    }
+
+    /**
+     * @return The number of registered users, which is counted by the map as users come and go.
+     */
+    public int getUserCount() {
+        return usersById.size();
     }
 
     // --- Singleton
@@ -1,24 +1,64 @@
 package academy.redoak.servlet.chatserver.service;
 
 import academy.redoak.servlet.chatserver.model.ChatRoom;
+import academy.redoak.servlet.chatserver.model.ColdStorage;
+import academy.redoak.servlet.chatserver.model.Message;
+import academy.redoak.servlet.chatserver.model.RetentionPolicy;
+import academy.redoak.servlet.chatserver.model.User;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Singleton service offering methods for retrieving chat rooms. Singleton instance may be retrieved
- * by {@link #getInstance()}.
+ * by {@link #getInstance()}. <br/>
+ * Rooms are indexed by id in a concurrent map. Additionally, the rooms are kept in insertion order in a
+ * copy-on-write list, so listing them works on a snapshot and never blocks the creation of new rooms. <br/>
+ * Created rooms and posted messages are recorded in the {@link Journal} set by {@link #setJournal(Journal)}. <br/>
+ * Rooms without a {@link RetentionPolicy} of their own share the default one, which is enforced by the
+ * {@link RetentionSweeper}. <br/>
+ * The number and sizes of the messages of all rooms are summed up as they change, and the largest and busiest rooms
+ * are kept on {@link Leaderboard}s, so none of these statistics visits every room.
  */
 public class ChatRoomService {
 
+    /**
+     * The number of rooms on each leaderboard.
+     */
+    public static final int TOP_ROOMS = 10;
+
+    private MessageDispatcher dispatcher = MessageDispatcher.getInstance();
+
+    private Map<String, ChatRoom> roomsById;
     private List<ChatRoom> rooms;
+    private AtomicLong version = new AtomicLong();
+    private volatile Journal journal = Journal.NONE;
+    private final Object journalLock = new Object();
+    private volatile ColdStorage coldStorage;
+    private volatile int hotMessages;
+    private volatile Executor spiller;
+    private volatile RetentionPolicy defaultRetention = RetentionPolicy.UNLIMITED;
+
+    private final Map<String, RoomStatistics> statisticsById = new ConcurrentHashMap<>();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder heapBytes = new LongAdder();
+    private final Leaderboard largestRooms = new Leaderboard(TOP_ROOMS, RoomStatistics::getMessages);
+    private final Leaderboard busiestRooms = new Leaderboard(TOP_ROOMS, RoomStatistics::getMessageRate);
 
     private ChatRoomService() {
         // private constructor due to singleton class
-        this.rooms = new ArrayList<>();
+        this.roomsById = new ConcurrentHashMap<>();
+        this.rooms = new CopyOnWriteArrayList<>();
     }
 
     /**
@@ -30,11 +70,133 @@ public class ChatRoomService {
      * @return The newly created {@link ChatRoom}.
      */
     public ChatRoom addChatRoom(String name) {
-        ChatRoom chatRoom = new ChatRoom(UUID.randomUUID().toString(), name);
-        rooms.add(chatRoom);
+        return addChatRoom(name, null);
+    }
+
+    /**
+     * Creates a new {@link ChatRoom} with given name and retention and returns the newly created object, after
+     * adding it to the application.
+     *
+     * @param name The name of the chat room to be created.
+     * @param retention The retention of its messages, <code>null</code> for the default one.
+     *
+     * @return The newly created {@link ChatRoom}.
+     */
+    public ChatRoom addChatRoom(String name, RetentionPolicy retention) {
+        ChatRoom chatRoom = new ChatRoom(UUID.randomUUID().toString(), name, retention);
+        synchronized (journalLock) {
+            journal.roomCreated(chatRoom);
+            add(chatRoom);
+        }
+        return chatRoom;
+    }
+
+    /**
+     * Puts a previously created room back into the application, e.g. when restoring it from disk. The
+     * {@link Journal} is not called.
+     *
+     * @param id The id of the room.
+     * @param name The name of the room.
+     * @param retention The retention of its messages, <code>null</code> for the default one.
+     * @return The restored {@link ChatRoom}, without any messages yet.
+     */
+    public ChatRoom restoreChatRoom(String id, String name, RetentionPolicy retention) {
+        ChatRoom chatRoom = new ChatRoom(id, name, retention);
+        add(chatRoom);
         return chatRoom;
     }
 
+    private void add(ChatRoom chatRoom) {
+        RoomStatistics statistics = new RoomStatistics(chatRoom);
+        statisticsById.put(chatRoom.getId(), statistics);
+        chatRoom.getMessageLog().setAppendListener(message -> journal.messageAppended(chatRoom, message));
+        chatRoom.getMessageLog().setSizeListener((messages, bytes, heapBytes) -> {
+            this.messages.add(messages);
+            this.bytes.add(bytes);
+            this.heapBytes.add(heapBytes);
+            if (messages > 0) {
+                largestRooms.offer(statistics);
+            }
+        });
+        if (coldStorage != null) {
+            chatRoom.getMessageLog().setColdStorage(coldStorage, hotMessages, spiller);
+        }
+        roomsById.put(chatRoom.getId(), chatRoom);
+        rooms.add(chatRoom);
+        version.incrementAndGet();
+    }
+
+    /**
+     * Keeps only the most recent messages of every room on the heap and moves the older ones to given
+     * {@link ColdStorage}.
+     *
+     * @param coldStorage The storage for the older messages.
+     * @param hotMessages The minimal number of messages per room to keep on the heap.
+     * @param spiller The executor moving the older messages in the background.
+     */
+    public void setColdStorage(ColdStorage coldStorage, int hotMessages, Executor spiller) {
+        this.hotMessages = hotMessages;
+        this.spiller = spiller;
+        this.coldStorage = coldStorage;
+        rooms.forEach(chatRoom -> chatRoom.getMessageLog().setColdStorage(coldStorage, hotMessages, spiller));
+    }
+
+    /**
+     * Sets the {@link RetentionPolicy} of all rooms without one of their own.
+     *
+     * @param retention The default retention.
+     */
+    public void setDefaultRetention(RetentionPolicy retention) {
+        this.defaultRetention = retention;
+    }
+
+    /**
+     * @param chatRoom The room to get the retention for.
+     * @return The {@link RetentionPolicy} in effect for given room, either its own or the default one.
+     */
+    public RetentionPolicy getRetention(ChatRoom chatRoom) {
+        return chatRoom.getRetention() != null ? chatRoom.getRetention() : defaultRetention;
+    }
+
+    /**
+     * Sets the {@link Journal} for recording rooms and messages from now on.
+     *
+     * @param journal The journal, {@link Journal#NONE} for recording nothing.
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return The version of the set of rooms, which changes whenever a room is added. Useful for caching
+     * anything derived from {@link #getRooms()}.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Posts a new message to given {@link ChatRoom} and hands it over to the {@link MessageDispatcher} for
+     * delivering it to the room's subscribers. Returns once the {@link Journal} made the message durable, see
+     * {@link Journal#sync()}.
+     *
+     * @param chatRoom The room to post the message in.
+     * @param user The author of the message.
+     * @param message The text of the message.
+     * @return The stored {@link Message} with its sequence number.
+     */
+    public Message postMessage(ChatRoom chatRoom, User user, String message) {
+        Message stored = chatRoom.postMessage(user, message);
+        journal.sync();
+        dispatcher.publish(chatRoom);
+        RoomStatistics statistics = statisticsById.get(chatRoom.getId());
+        if (statistics != null) {
+            statistics.messagePosted(stored.getTimestamp());
+            busiestRooms.offer(statistics);
+        }
+        return stored;
+    }
+
     /**
      * Searches for the {@link ChatRoom} with given id and returns it.
      *
@@ -43,16 +205,78 @@ public class ChatRoomService {
      * chat room with given id.
      */
     public Optional<ChatRoom> getChatRoom(String id) {
-        return this.rooms.stream().filter(r -> r.getId().equals(id)).findFirst();
+        return Optional.ofNullable(this.roomsById.get(id));
     }
 
     /**
-     * @return An unmodifiable list with all existing rooms.
+     * @return A copy of the list of all rooms, which contains every room already passed to the {@link Journal}.
+     * Unlike {@link #getRooms()}, a room being journaled right now is waited for.
+     */
+    public List<ChatRoom> getJournaledRooms() {
+        synchronized (journalLock) {
+            return new ArrayList<>(rooms);
+        }
+    }
+
+    /**
+     * @return An unmodifiable list with all existing rooms in order of creation. Iterating it works on a snapshot,
+     * so rooms created meanwhile are not contained.
      */
     public List<ChatRoom> getRooms() {
         return Collections.unmodifiableList(rooms);
     }
 
+    /**
+     * @param chatRoom The room to get the statistics of.
+     * @return The live {@link RoomStatistics} of given room.
+     */
+    public Optional<RoomStatistics> getStatistics(ChatRoom chatRoom) {
+        return Optional.ofNullable(statisticsById.get(chatRoom.getId()));
+    }
+
+    /**
+     * @return The number of rooms.
+     */
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    /**
+     * @return The number of messages of all rooms not evicted yet.
+     */
+    public long getMessageCount() {
+        return messages.sum();
+    }
+
+    /**
+     * @return The estimated size in bytes of the messages of all rooms not evicted yet.
+     */
+    public long getMessageBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return The estimated size in bytes of the messages of all rooms on the heap.
+     */
+    public long getHeapBytes() {
+        return heapBytes.sum();
+    }
+
+    /**
+     * @return The {@link #TOP_ROOMS} rooms with the most messages, in descending order.
+     */
+    public List<RoomStatistics> getLargestRooms() {
+        return largestRooms.getRooms();
+    }
+
+    /**
+     * @return The {@link #TOP_ROOMS} rooms with the highest message rate, in descending order. Rooms which became
+     * busy only recently may be missing, until they post their next message.
+     */
+    public List<RoomStatistics> getBusiestRooms() {
+        return busiestRooms.getRooms();
+    }
+
     // --- Singleton
 
     private static ChatRoomService instance = new ChatRoomService();
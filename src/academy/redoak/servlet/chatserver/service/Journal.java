@@ -0,0 +1,40 @@
+package academy.redoak.servlet.chatserver.service;
+
+import academy.redoak.servlet.chatserver.model.ChatRoom;
+import academy.redoak.servlet.chatserver.model.Message;
+import academy.redoak.servlet.chatserver.model.User;
+
+/**
+ * Receives every change of the state held by {@link AuthService} and {@link ChatRoomService}, e.g. for making it
+ * durable. Messages of a room are journaled concurrently by their writers, so not strictly in sequence order, but
+ * each one before it is published. <br/>
+ * Implementations are called on the thread doing the change, so they must be thread-safe and should not block.
+ * Waiting for messages to be durable is left to {@link #sync()}, so it is done once for many messages.
+ */
+public interface Journal {
+
+    /**
+     * Journal dropping everything, used as long as no other journal is set.
+     */
+    Journal NONE = new Journal() { };
+
+    default void userRegistered(User user) {
+    }
+
+    default void userUnregistered(User user) {
+    }
+
+    default void roomCreated(ChatRoom chatRoom) {
+    }
+
+    default void messageAppended(ChatRoom chatRoom, Message message) {
+    }
+
+    /**
+     * Waits until the messages journaled so far are durable, if the journal promises to make them durable before
+     * a post is acknowledged. Called by the posting thread after the message is appended, so other posts are not
+     * held up. Returns at once by default.
+     */
+    default void sync() {
+    }
+}
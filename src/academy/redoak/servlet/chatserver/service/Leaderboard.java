@@ -0,0 +1,98 @@
+package academy.redoak.servlet.chatserver.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The top rooms by some score, e.g. their number of messages, maintained incrementally instead of sorting all rooms
+ * whenever they are requested. <br/>
+ * A room is offered whenever its score grew. Offers are answered by reading a volatile threshold, the lowest score
+ * on the board when it was last updated, and by scanning the few members. Only a room beating the threshold takes
+ * the lock for replacing the lowest member. Scores may also decrease, e.g. by eviction or decay, so the threshold
+ * is recomputed whenever the board is read and rooms below it may have to wait for that.
+ */
+final class Leaderboard {
+
+    private final int capacity;
+    private final ToDoubleFunction<RoomStatistics> score;
+    private volatile RoomStatistics[] members = new RoomStatistics[0];
+    private volatile double threshold = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param capacity The number of rooms on the board.
+     * @param score The score of a room.
+     */
+    Leaderboard(int capacity, ToDoubleFunction<RoomStatistics> score) {
+        this.capacity = capacity;
+        this.score = score;
+    }
+
+    /**
+     * Puts given room on the board, if its score beats the lowest one.
+     *
+     * @param room The room, whose score grew.
+     */
+    void offer(RoomStatistics room) {
+        if (capacity == 0 || score.applyAsDouble(room) <= threshold || contains(members, room)) {
+            return;
+        }
+        synchronized (this) {
+            RoomStatistics[] current = members;
+            if (contains(current, room)) {
+                return;
+            }
+            if (current.length < capacity) {
+                RoomStatistics[] grown = Arrays.copyOf(current, current.length + 1);
+                grown[current.length] = room;
+                update(grown);
+                return;
+            }
+            int lowest = lowest(current);
+            if (score.applyAsDouble(room) > score.applyAsDouble(current[lowest])) {
+                RoomStatistics[] replaced = current.clone();
+                replaced[lowest] = room;
+                update(replaced);
+            } else {
+                threshold = score.applyAsDouble(current[lowest]);
+            }
+        }
+    }
+
+    /**
+     * @return The rooms on the board ordered by descending score.
+     */
+    synchronized List<RoomStatistics> getRooms() {
+        RoomStatistics[] current = members;
+        update(current);
+        List<RoomStatistics> rooms = new ArrayList<>(Arrays.asList(current));
+        rooms.sort(Comparator.comparingDouble(score).reversed());
+        return rooms;
+    }
+
+    private void update(RoomStatistics[] rooms) {
+        members = rooms;
+        threshold = rooms.length < capacity ? Double.NEGATIVE_INFINITY : score.applyAsDouble(rooms[lowest(rooms)]);
+    }
+
+    private int lowest(RoomStatistics[] rooms) {
+        int lowest = 0;
+        for (int i = 1; i < rooms.length; i++) {
+            if (score.applyAsDouble(rooms[i]) < score.applyAsDouble(rooms[lowest])) {
+                lowest = i;
+            }
+        }
+        return lowest;
+    }
+
+    private static boolean contains(RoomStatistics[] rooms, RoomStatistics room) {
+        for (RoomStatistics member : rooms) {
+            if (member == room) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,180 @@
+package academy.redoak.servlet.chatserver.service;
+
+import academy.redoak.servlet.chatserver.model.ChatRoom;
+import academy.redoak.servlet.chatserver.model.Message;
+import academy.redoak.servlet.chatserver.model.MessageLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Singleton service fanning out the messages posted to chat rooms to their {@link Subscriber}s. Singleton instance
+ * may be retrieved by {@link #getInstance()}. <br/>
+ * Posting a message only signals the room's channel, which costs the same regardless of the number or speed of
+ * subscribers. The fan-out and the delivery run on a dedicated executor. Every {@link Subscription} has a bounded
+ * queue, so a slow subscriber only ever affects itself.
+ */
+public class MessageDispatcher {
+
+    private Map<String, Channel> channels;
+    private ExecutorService executor;
+    private final LongAdder subscriptionCount = new LongAdder();
+
+    private MessageDispatcher() {
+        // private constructor due to singleton class
+        this.channels = new ConcurrentHashMap<>();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "message-dispatcher-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Subscribes to the messages posted to given room.
+     *
+     * @param chatRoom The room to subscribe to.
+     * @param subscriber The subscriber receiving the messages.
+     * @param since If given, the messages after this sequence are delivered first. If there are more than
+     *      <code>capacity</code> of them or some are evicted already, the {@link Subscriber} is told to
+     *      {@link Subscriber#resync resync} from this sequence instead, just like by {@link OverflowPolicy#RESYNC}.
+     *      Otherwise only messages posted from now on are delivered.
+     * @param capacity The maximum number of queued messages.
+     * @param policy What to do, if the queue is full.
+     * @return The created {@link Subscription}, which may be cancelled.
+     * @throws IllegalArgumentException If <code>since</code> is after the last message of the room.
+     */
+    public Subscription subscribe(ChatRoom chatRoom, Subscriber subscriber, Long since, int capacity, OverflowPolicy policy) {
+        MessageLog log = chatRoom.getMessageLog();
+        long last = log.lastSequence();
+        if (since != null && since > last) {
+            throw new IllegalArgumentException("Sequence " + since + " is after the last message " + last);
+        }
+        boolean resync = since != null && since < Math.max(last - capacity, log.firstSequence() - 1);
+        long start = since != null && !resync ? since : last;
+        Channel channel = channels.computeIfAbsent(chatRoom.getId(), id -> new Channel(chatRoom));
+        Subscription subscription = new Subscription(chatRoom, subscriber, capacity, policy, start, executor,
+                cancelled -> {
+                    if (channel.subscriptions.remove(cancelled)) {
+                        subscriptionCount.decrement();
+                    }
+                });
+        synchronized (subscription) {
+            channel.subscriptions.add(subscription);
+            subscriptionCount.increment();
+            if (resync) {
+                subscription.resync(since);
+            }
+            // replays the messages posted before being added, the fan-out skips them as already queued
+            subscription.offer(log.range(start + 1, log.lastSequence()));
+        }
+        return subscription;
+    }
+
+    /**
+     * Hands the messages newly appended to given room over to its subscribers. Returns immediately, the
+     * messages are delivered asynchronously in sequence order.
+     *
+     * @param chatRoom The room a message was posted in.
+     */
+    public void publish(ChatRoom chatRoom) {
+        Channel channel = channels.get(chatRoom.getId());
+        if (channel != null && !channel.subscriptions.isEmpty()) {
+            channel.schedule();
+        }
+    }
+
+    /**
+     * @param chatRoom The room to count the subscriptions of.
+     * @return The number of active subscriptions to given room.
+     */
+    public int getSubscriberCount(ChatRoom chatRoom) {
+        Channel channel = channels.get(chatRoom.getId());
+        return channel != null ? channel.subscriptions.size() : 0;
+    }
+
+    /**
+     * @return The number of active subscriptions to all rooms.
+     */
+    public long getSubscriptionCount() {
+        return subscriptionCount.sum();
+    }
+
+    /**
+     * Fans out the messages of a single room. Reads new messages from the room's {@link MessageLog}, so they are
+     * dispatched in sequence order, no matter in which order the posting threads signalled them. At most one
+     * fan-out per room runs at a time. Messages posted while there are no subscriptions are not dispatched, new
+     * subscriptions read them from the log on their own. So a fan-out starts reading after the oldest message
+     * queued by every subscription, not after a message dispatched long ago.
+     */
+    private final class Channel {
+
+        private final ChatRoom chatRoom;
+        private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private long lastDispatched;
+
+        Channel(ChatRoom chatRoom) {
+            this.chatRoom = chatRoom;
+            this.lastDispatched = chatRoom.getMessageLog().lastSequence();
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::dispatch);
+            }
+        }
+
+        private void dispatch() {
+            MessageLog log = chatRoom.getMessageLog();
+            do {
+                long last = log.lastSequence();
+                if (last > lastDispatched) {
+                    // read before the subscriptions, as ones added later replayed everything up to here on their own
+                    long from = Math.max(lastDispatched, lastQueued(last));
+                    if (from < last) {
+                        // messages are created on every read, copying shares them and their JSON among the
+                        // subscribers
+                        List<Message> messages = new ArrayList<>(log.range(from + 1, last));
+                        for (Subscription subscription : subscriptions) {
+                            subscription.offer(messages);
+                        }
+                    }
+                    lastDispatched = last;
+                }
+                scheduled.set(false);
+            } while (log.lastSequence() > lastDispatched && scheduled.compareAndSet(false, true));
+        }
+
+        /**
+         * @return The sequence of the last message queued by all subscriptions, at most given one.
+         */
+        private long lastQueued(long last) {
+            long lastQueued = last;
+            for (Subscription subscription : subscriptions) {
+                lastQueued = Math.min(lastQueued, subscription.getLastQueued());
+            }
+            return lastQueued;
+        }
+    }
+
+    // --- Singleton
+
+    private static MessageDispatcher instance = new MessageDispatcher();
+
+    /**
+     * @return The singleton instance.
+     */
+    public static MessageDispatcher getInstance() {
+        return instance;
+    }
+}
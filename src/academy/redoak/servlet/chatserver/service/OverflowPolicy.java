@@ -0,0 +1,22 @@
+package academy.redoak.servlet.chatserver.service;
+
+/**
+ * Declares what happens, when the queue of a {@link Subscription} is full, because its {@link Subscriber} does not
+ * keep up with the messages posted to the room.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * The oldest queued message is dropped in favour of the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * The subscription is cancelled and the subscriber is notified by {@link Subscriber#disconnect}.
+     */
+    DISCONNECT,
+    /**
+     * All queued and following messages are dropped until the subscriber got notified by {@link Subscriber#resync},
+     * so it may re-read the room itself.
+     */
+    RESYNC;
+}
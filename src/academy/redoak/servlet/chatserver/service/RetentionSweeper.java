@@ -0,0 +1,186 @@
+package academy.redoak.servlet.chatserver.service;
+
+import academy.redoak.servlet.chatserver.model.ChatRoom;
+import academy.redoak.servlet.chatserver.model.Message;
+import academy.redoak.servlet.chatserver.model.MessageLog;
+import academy.redoak.servlet.chatserver.model.RetentionPolicy;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Singleton service evicting the messages exceeding the {@link RetentionPolicy} of their room in the background.
+ * Singleton instance may be retrieved by {@link #getInstance()}. <br/>
+ * Every sweep visits all rooms, but evicts at most <code>maxEvictions</code> messages per room, so a room far beyond
+ * its limits is trimmed over several sweeps instead of stalling the others. Evicting never blocks appending or
+ * reading, see {@link MessageLog#evictBefore(long)}. <br/>
+ * Evicted messages are not journaled. Restoring from a snapshot keeps them evicted, whereas messages replayed from
+ * the log are evicted again by the next sweep.
+ */
+public class RetentionSweeper {
+
+    private static final Logger LOGGER = Logger.getLogger(RetentionSweeper.class.getName());
+
+    private ChatRoomService chatRoomService = ChatRoomService.getInstance();
+
+    private ScheduledExecutorService executor;
+    private volatile int maxEvictions = 10000;
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong evictedMessages = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+
+    private RetentionSweeper() {
+        // private constructor due to singleton class
+    }
+
+    /**
+     * Starts sweeping periodically. Does nothing, if already started.
+     *
+     * @param interval The delay between two sweeps in milliseconds.
+     * @param maxEvictions The maximum number of messages evicted per room and sweep.
+     */
+    public synchronized void start(long interval, int maxEvictions) {
+        if (executor != null) {
+            return;
+        }
+        this.maxEvictions = maxEvictions;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "retention-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Failed to sweep chat rooms", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sweeping periodically.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Enforces the {@link RetentionPolicy} of every room once.
+     *
+     * @return The number of evicted messages.
+     */
+    public long sweep() {
+        long now = System.currentTimeMillis();
+        long evicted = 0;
+        long bytes = 0;
+        for (ChatRoom chatRoom : chatRoomService.getRooms()) {
+            RetentionPolicy retention = chatRoomService.getRetention(chatRoom);
+            if (retention.isUnlimited()) {
+                continue;
+            }
+            MessageLog log = chatRoom.getMessageLog();
+            long evictedBytesBefore = log.getEvictedBytes();
+            evicted += log.evictBefore(firstToKeep(log, retention, now));
+            bytes += log.getEvictedBytes() - evictedBytesBefore;
+        }
+        sweeps.incrementAndGet();
+        evictedMessages.addAndGet(evicted);
+        evictedBytes.addAndGet(bytes);
+        if (evicted > 0) {
+            LOGGER.fine("Evicted " + evicted + " messages with " + bytes + " bytes");
+        }
+        return evicted;
+    }
+
+    /**
+     * @return The sequence number of the first message of given log, which is kept according to given retention,
+     * but at most <code>maxEvictions</code> after its current first message.
+     */
+    private long firstToKeep(MessageLog log, RetentionPolicy retention, long now) {
+        long first = log.firstSequence();
+        long last = log.lastSequence();
+        long limit = Math.min(first + maxEvictions, last + 1);
+        long keep = first;
+        if (retention.getMaxMessages() > 0) {
+            keep = Math.max(keep, last - retention.getMaxMessages() + 1);
+        }
+        if (retention.getMaxAge() > 0 && keep < limit) {
+            keep = Math.max(keep, firstNotOlderThan(log, keep, limit, now - retention.getMaxAge()));
+        }
+        keep = Math.min(keep, limit);
+        if (retention.getMaxBytes() > 0 && keep < limit) {
+            long excess = log.getBytes() - retention.getMaxBytes();
+            List<Message> messages = log.range(first, limit - 1);
+            long sequence = first;
+            for (Message message : messages) {
+                if (sequence >= keep && excess <= 0) {
+                    break;
+                }
+                excess -= MessageLog.sizeOf(message);
+                sequence++;
+            }
+            keep = Math.max(keep, sequence);
+        }
+        return keep;
+    }
+
+    /**
+     * Binary search for the first message within given bounds with a timestamp not before given one. Timestamps
+     * increase with the sequence numbers, apart from concurrent appends within the same millisecond or so.
+     */
+    private static long firstNotOlderThan(MessageLog log, long from, long to, long timestamp) {
+        long low = from;
+        long high = to;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            Message message = log.get(middle);
+            if (message == null || message.getTimestamp() < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The number of sweeps done so far.
+     */
+    public long getSweeps() {
+        return sweeps.get();
+    }
+
+    /**
+     * @return The number of messages evicted by all sweeps so far.
+     */
+    public long getEvictedMessages() {
+        return evictedMessages.get();
+    }
+
+    /**
+     * @return The estimated size in bytes of the messages evicted by all sweeps so far.
+     */
+    public long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    // --- Singleton
+
+    private static RetentionSweeper instance = new RetentionSweeper();
+
+    /**
+     * @return The singleton instance.
+     */
+    public static RetentionSweeper getInstance() {
+        return instance;
+    }
+}
@@ -0,0 +1,65 @@
+package academy.redoak.servlet.chatserver.service;
+
+import academy.redoak.servlet.chatserver.model.ChatRoom;
+import academy.redoak.servlet.chatserver.model.MessageLog;
+import academy.redoak.servlet.chatserver.util.DecayingRate;
+
+/**
+ * Live statistics of a single {@link ChatRoom}, as maintained by the {@link ChatRoomService}. Sizes are read from
+ * the counters of the room's {@link MessageLog}, the message rate is a one minute {@link DecayingRate} of the
+ * messages posted.
+ */
+public final class RoomStatistics {
+
+    private static final long RATE_WINDOW = 60000;
+
+    private final ChatRoom chatRoom;
+    private final DecayingRate rate = new DecayingRate(RATE_WINDOW, System.currentTimeMillis());
+
+    RoomStatistics(ChatRoom chatRoom) {
+        this.chatRoom = chatRoom;
+    }
+
+    void messagePosted(long timestamp) {
+        rate.mark(timestamp);
+    }
+
+    public ChatRoom getChatRoom() {
+        return chatRoom;
+    }
+
+    /**
+     * @return The number of messages not evicted yet.
+     */
+    public long getMessages() {
+        return chatRoom.getMessageLog().size();
+    }
+
+    /**
+     * @return The estimated size in bytes of the messages not evicted yet, see {@link MessageLog#getBytes()}.
+     */
+    public long getBytes() {
+        return chatRoom.getMessageLog().getBytes();
+    }
+
+    /**
+     * @return The estimated size in bytes of the messages on the heap, see {@link MessageLog#getHeapBytes()}.
+     */
+    public long getHeapBytes() {
+        return chatRoom.getMessageLog().getHeapBytes();
+    }
+
+    /**
+     * @return The average number of messages posted per second over the last minute or so.
+     */
+    public double getMessageRate() {
+        return rate.getRate(System.currentTimeMillis());
+    }
+
+    /**
+     * @return The number of active subscriptions, see {@link MessageDispatcher#getSubscriberCount(ChatRoom)}.
+     */
+    public int getSubscribers() {
+        return MessageDispatcher.getInstance().getSubscriberCount(chatRoom);
+    }
+}
@@ -0,0 +1,42 @@
+package academy.redoak.servlet.chatserver.service;
+
+import academy.redoak.servlet.chatserver.model.ChatRoom;
+import academy.redoak.servlet.chatserver.model.Message;
+
+import java.util.List;
+
+/**
+ * Receiver of the messages posted to a {@link ChatRoom}, see
+ * {@link MessageDispatcher#subscribe(ChatRoom, Subscriber, Long, int, OverflowPolicy)}. <br/>
+ * All methods are called by the dispatcher's executor, never by the thread posting a message. A subscriber
+ * must call the given <code>done</code> callback once it handled a call, possibly from another thread. Until then,
+ * no further call is made and new messages are queued.
+ */
+public interface Subscriber {
+
+    /**
+     * Delivers new messages of the room.
+     *
+     * @param chatRoom The room the messages were posted in.
+     * @param messages The messages in sequence order.
+     * @param done To be called, when the messages are handled.
+     */
+    void deliver(ChatRoom chatRoom, List<Message> messages, Runnable done);
+
+    /**
+     * Notifies about dropped messages due to {@link OverflowPolicy#RESYNC}. Messages after given sequence
+     * may be missing and have to be read from the room.
+     *
+     * @param chatRoom The room the messages were posted in.
+     * @param lastDelivered The sequence of the last message delivered before.
+     * @param done To be called, when the notification is handled.
+     */
+    void resync(ChatRoom chatRoom, long lastDelivered, Runnable done);
+
+    /**
+     * Notifies about the cancellation of the subscription due to {@link OverflowPolicy#DISCONNECT}.
+     *
+     * @param chatRoom The room subscribed to.
+     */
+    void disconnect(ChatRoom chatRoom);
+}
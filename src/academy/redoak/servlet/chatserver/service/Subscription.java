@@ -0,0 +1,176 @@
+package academy.redoak.servlet.chatserver.service;
+
+import academy.redoak.servlet.chatserver.model.ChatRoom;
+import academy.redoak.servlet.chatserver.model.Message;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The subscription of a {@link Subscriber} to a {@link ChatRoom}, created by the {@link MessageDispatcher}. Holds
+ * a bounded queue of messages not delivered yet and applies its {@link OverflowPolicy}, if it is full.
+ * Messages are delivered one batch after another on the dispatcher's executor.
+ */
+public class Subscription {
+
+    private final ChatRoom chatRoom;
+    private final Subscriber subscriber;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Executor executor;
+    private final Consumer<Subscription> onCancel;
+
+    private final Deque<Message> queue = new ArrayDeque<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private long lastQueued;
+    private long lastDelivered;
+    private boolean resyncPending;
+    private boolean inFlight;
+    private volatile boolean cancelled;
+
+    Subscription(ChatRoom chatRoom, Subscriber subscriber, int capacity, OverflowPolicy policy, long lastQueued,
+                 Executor executor, Consumer<Subscription> onCancel) {
+        this.chatRoom = chatRoom;
+        this.subscriber = subscriber;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.lastQueued = lastQueued;
+        this.lastDelivered = lastQueued;
+        this.executor = executor;
+        this.onCancel = onCancel;
+    }
+
+    /**
+     * Cancels this subscription. Queued messages are discarded, no further calls to the {@link Subscriber} are made.
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            queue.clear();
+        }
+        onCancel.accept(this);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return The number of messages dropped due to a full queue.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public ChatRoom getChatRoom() {
+        return chatRoom;
+    }
+
+    /**
+     * @return The sequence of the last message queued, or dropped due to a full queue.
+     */
+    synchronized long getLastQueued() {
+        return lastQueued;
+    }
+
+    /**
+     * Queues given messages, which must have contiguous sequence numbers. Messages already queued before are skipped.
+     */
+    void offer(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        boolean disconnect = false;
+        synchronized (this) {
+            int start = (int) Math.max(0, lastQueued + 1 - messages.get(0).getSequence());
+            for (Message message : messages.subList(Math.min(start, messages.size()), messages.size())) {
+                if (cancelled) {
+                    return;
+                }
+                lastQueued = message.getSequence();
+                if (resyncPending) {
+                    dropped.incrementAndGet();
+                } else if (queue.size() < capacity) {
+                    queue.addLast(message);
+                } else if (policy == OverflowPolicy.DROP_OLDEST) {
+                    queue.pollFirst();
+                    queue.addLast(message);
+                    dropped.incrementAndGet();
+                } else if (policy == OverflowPolicy.RESYNC) {
+                    dropped.addAndGet(queue.size() + 1);
+                    queue.clear();
+                    resyncPending = true;
+                } else {
+                    dropped.addAndGet(queue.size() + 1);
+                    disconnect = true;
+                    break;
+                }
+            }
+            if (!disconnect) {
+                scheduleDelivery();
+            }
+        }
+        if (disconnect) {
+            cancel();
+            executor.execute(() -> subscriber.disconnect(chatRoom));
+        }
+    }
+
+    /**
+     * Drops all queued and following messages until the {@link Subscriber} got told to resync from given sequence.
+     */
+    synchronized void resync(long lastDelivered) {
+        dropped.addAndGet(queue.size());
+        queue.clear();
+        this.lastDelivered = lastDelivered;
+        resyncPending = true;
+        scheduleDelivery();
+    }
+
+    private void scheduleDelivery() {
+        if (!inFlight && !cancelled && (resyncPending || !queue.isEmpty())) {
+            inFlight = true;
+            executor.execute(this::deliver);
+        }
+    }
+
+    private void deliver() {
+        List<Message> batch = null;
+        long resyncSequence = -1;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            if (resyncPending) {
+                resyncPending = false;
+                resyncSequence = lastDelivered;
+            } else {
+                batch = new ArrayList<>(queue);
+                queue.clear();
+                lastDelivered = batch.get(batch.size() - 1).getSequence();
+            }
+        }
+        try {
+            if (batch != null) {
+                subscriber.deliver(chatRoom, batch, this::done);
+            } else {
+                subscriber.resync(chatRoom, resyncSequence, this::done);
+            }
+        } catch (RuntimeException e) {
+            cancel();
+        }
+    }
+
+    private synchronized void done() {
+        inFlight = false;
+        scheduleDelivery();
+    }
+}
@@ -0,0 +1,134 @@
+package academy.redoak.servlet.chatserver.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Utility class for the HTTP content codings <code>gzip</code> and <code>deflate</code>.
+ */
+public final class Compression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * The codings looked for by {@link #negotiate(String)}, the wildcard last.
+     */
+    private static final List<String> CODINGS = Arrays.asList(GZIP, DEFLATE, "*");
+
+    private Compression() {
+        // private Constructor due to utility class
+    }
+
+    /**
+     * Picks the supported content coding with the highest quality value from an <code>Accept-Encoding</code>
+     * header. On equal quality, the coding listed first wins. A <code>*</code> only stands for the codings not
+     * listed explicitly, as of RFC 7231 section 5.3.4, and prefers {@link #GZIP}. <br/>
+     * <code>
+     *     negotiate("deflate;q=0.5, gzip") == "gzip"
+     *     negotiate("identity") == null
+     *     negotiate("gzip;q=0, *") == "deflate"
+     * </code>
+     *
+     * @param acceptEncoding The header value, may be <code>null</code>.
+     * @return {@link #GZIP}, {@link #DEFLATE} or <code>null</code>, if the response should not be compressed.
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        // quality and position of gzip, deflate and the wildcard, -1 if not listed
+        double[] quality = {-1, -1, -1};
+        int[] position = {-1, -1, -1};
+        String[] tokens = acceptEncoding.split(",");
+        for (int i = 0; i < tokens.length; i++) {
+            String[] parts = tokens[i].split(";");
+            int coding = CODINGS.indexOf(parts[0].trim().toLowerCase(Locale.ROOT));
+            if (coding >= 0 && position[coding] < 0) {
+                quality[coding] = quality(parts);
+                position[coding] = i;
+            }
+        }
+        String best = null;
+        double bestQuality = 0;
+        int bestPosition = Integer.MAX_VALUE;
+        for (int coding = 0; coding < 2; coding++) {
+            int listed = position[coding] >= 0 ? coding : 2;
+            double codingQuality = quality[listed];
+            if (codingQuality > bestQuality || (codingQuality == bestQuality && position[listed] < bestPosition)) {
+                best = CODINGS.get(coding);
+                bestQuality = codingQuality;
+                bestPosition = position[listed];
+            }
+        }
+        return bestQuality > 0 ? best : null;
+    }
+
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Wraps given stream, so everything written is compressed using given content coding. Closing the returned
+     * stream finishes the compressed data and closes given stream.
+     *
+     * @param out The stream to write the compressed bytes into.
+     * @param encoding {@link #GZIP} or {@link #DEFLATE}.
+     * @return The compressing stream.
+     * @throws IOException Writing the gzip header may throw.
+     */
+    public static OutputStream compressing(OutputStream out, String encoding) throws IOException {
+        if (GZIP.equals(encoding)) {
+            return new GZIPOutputStream(out, 8192);
+        } else if (DEFLATE.equals(encoding)) {
+            // HTTP "deflate" is the zlib format, which is what DeflaterOutputStream writes by default
+            return new DeflaterOutputStream(out, new Deflater(), 8192) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unsupported content coding: " + encoding);
+    }
+
+    /**
+     * Compresses given bytes at once.
+     *
+     * @param bytes The bytes to be compressed.
+     * @param encoding {@link #GZIP} or {@link #DEFLATE}.
+     * @return The compressed bytes.
+     */
+    public static byte[] compress(byte[] bytes, String encoding) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (OutputStream out = compressing(buffer, encoding)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            // not thrown by ByteArrayOutputStream
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+}
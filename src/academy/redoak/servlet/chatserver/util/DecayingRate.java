@@ -0,0 +1,59 @@
+package academy.redoak.servlet.chatserver.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exponentially weighted moving average of the rate of events per second, like the load average of Unix. Recent
+ * events weigh most, older ones decay with the time constant given as window. <br/>
+ * Marking an event only increments a {@link LongAdder}. Every 5 seconds, the next caller folds the counted events
+ * into the average, catching up with all ticks missed meanwhile, so idle instances cost nothing. The rate thus lags
+ * behind by up to one tick. Ticks are claimed by CAS, so concurrent callers never fold the same events twice.
+ */
+public final class DecayingRate {
+
+    private static final long TICK = 5000;
+
+    private final double alpha;
+    private final LongAdder uncounted = new LongAdder();
+    private final AtomicLong lastTick;
+    private volatile double rate;
+
+    /**
+     * @param window The time constant in milliseconds, e.g. 60000 for a one minute average.
+     * @param now The current time in milliseconds.
+     */
+    public DecayingRate(long window, long now) {
+        this.alpha = 1 - Math.exp(-(double) TICK / window);
+        this.lastTick = new AtomicLong(now);
+    }
+
+    /**
+     * Marks an event.
+     *
+     * @param now The current time in milliseconds.
+     */
+    public void mark(long now) {
+        tickIfNecessary(now);
+        uncounted.increment();
+    }
+
+    /**
+     * @param now The current time in milliseconds.
+     * @return The average number of events per second.
+     */
+    public double getRate(long now) {
+        tickIfNecessary(now);
+        return rate;
+    }
+
+    private void tickIfNecessary(long now) {
+        long last = lastTick.get();
+        long ticks = (now - last) / TICK;
+        if (ticks > 0 && lastTick.compareAndSet(last, last + ticks * TICK)) {
+            double instant = uncounted.sumThenReset() * 1000.0 / TICK;
+            double current = rate + alpha * (instant - rate);
+            rate = current * Math.pow(1 - alpha, ticks - 1);
+        }
+    }
+}
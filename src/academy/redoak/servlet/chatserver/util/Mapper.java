@@ -2,11 +2,20 @@ package academy.redoak.servlet.chatserver.util;
 
 import academy.redoak.servlet.chatserver.http.Response;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Utility class for mapping objects to Strings and Strings to objects.
  */
@@ -18,6 +27,16 @@ public final class Mapper {
 
     private static ObjectMapper mapper = new ObjectMapper();
 
+    /**
+     * Writers per {@link Response} type, so serializers are looked up only once per type.
+     */
+    private static Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    /**
+     * Readers per type, so deserializers are looked up only once per type.
+     */
+    private static Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
     /*
      * Configuring the Jackson mapper object.
      */
@@ -38,6 +57,32 @@ public final class Mapper {
         return mapper.writeValueAsString(object);
     }
 
+    /**
+     * Writes an object in JSON format directly into given stream, without building the whole document in memory.
+     * The stream is closed afterwards.
+     *
+     * @param object The object to be written.
+     * @param out The stream to write the UTF-8 encoded JSON into.
+     * @throws IOException Standard Exception from Jackson or given stream, which may be thrown on issues.
+     */
+    public static void writeJson(Response object, OutputStream out) throws IOException {
+        ObjectWriter writer = writers.computeIfAbsent(object.getClass(), mapper::writerFor);
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            writer.writeValue(generator, object);
+        }
+    }
+
+    /**
+     * Writes an object into UTF-8 encoded bytes in JSON format.
+     *
+     * @param object The object to be written.
+     * @return The written bytes in JSON format.
+     * @throws JsonProcessingException Standard Exception from Jackson, which may be thrown on issues.
+     */
+    public static byte[] getAsJsonBytes(Object object) throws JsonProcessingException {
+        return mapper.writeValueAsBytes(object);
+    }
+
     /**
      * Reads an object from a string in JSON format.
      *
@@ -51,4 +96,18 @@ public final class Mapper {
     public static <T> T getAsObject(String str, Class<T> clazz) throws JsonProcessingException {
         return mapper.readValue(str, clazz);
     }
+
+    /**
+     * Reads an object in JSON format directly from given stream, without buffering the whole document first.
+     *
+     * @param in The stream to read the JSON from. Its encoding is detected by Jackson.
+     * @param clazz The class of the object being read,
+     * @param <T> The type of clazz.
+     * @return The read object.
+     *
+     * @throws IOException Standard Exception from Jackson or given stream, which may be thrown on issues.
+     */
+    public static <T> T readJson(InputStream in, Class<T> clazz) throws IOException {
+        return readers.computeIfAbsent(clazz, mapper::readerFor).readValue(in);
+    }
 }
@@ -0,0 +1,35 @@
+package academy.redoak.servlet.chatserver.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Utility class for virtual threads, which are final since Java 21. The application is built for Java 8, so they
+ * are looked up by reflection and are only used when running on a JVM supporting them.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+        // private Constructor due to utility class
+    }
+
+    /**
+     * @return An executor starting a new virtual thread for every task, like
+     * <code>Executors.newVirtualThreadPerTaskExecutor()</code>, or an empty {@link Optional}, if the JVM does not
+     * support virtual threads or only as preview feature.
+     */
+    public static Optional<ExecutorService> newPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return Optional.of((ExecutorService) factory.invoke(null));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return Optional.empty();
+        } catch (InvocationTargetException e) {
+            // thrown as UnsupportedOperationException without enabled preview features
+            return Optional.empty();
+        }
+    }
+}
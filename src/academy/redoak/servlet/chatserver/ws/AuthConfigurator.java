@@ -0,0 +1,36 @@
+package academy.redoak.servlet.chatserver.ws;
+
+import javax.websocket.HandshakeResponse;
+import javax.websocket.server.HandshakeRequest;
+import javax.websocket.server.ServerEndpointConfig;
+import java.util.List;
+
+/**
+ * Configurator for {@link ChatSocket}, which hands the "auth" header of the handshake request over to the
+ * endpoint. As browsers can not set headers when opening a WebSocket, the "auth" query parameter is accepted, too.
+ * <br/>
+ * The token is put into the user properties of the config given for the handshake, which the container copies for
+ * every handshake and hands over to the session. If there is no token, the property is removed, so a token of
+ * another handshake can never be taken over, even if a container shared the config.
+ */
+public class AuthConfigurator extends ServerEndpointConfig.Configurator {
+
+    static final String AUTH_PROPERTY = "auth";
+
+    @Override
+    public void modifyHandshake(ServerEndpointConfig sec, HandshakeRequest request, HandshakeResponse response) {
+        String token = first(request.getHeaders().get("auth"));
+        if (token == null) {
+            token = first(request.getParameterMap().get("auth"));
+        }
+        if (token != null) {
+            sec.getUserProperties().put(AUTH_PROPERTY, token);
+        } else {
+            sec.getUserProperties().remove(AUTH_PROPERTY);
+        }
+    }
+
+    private static String first(List<String> values) {
+        return values != null && !values.isEmpty() ? values.get(0).trim() : null;
+    }
+}
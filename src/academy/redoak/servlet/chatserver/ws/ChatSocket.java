@@ -0,0 +1,299 @@
+package academy.redoak.servlet.chatserver.ws;
+
+import academy.redoak.servlet.chatserver.http.Status;
+import academy.redoak.servlet.chatserver.http.chat.MessageJson;
+import academy.redoak.servlet.chatserver.model.ChatRoom;
+import academy.redoak.servlet.chatserver.model.Message;
+import academy.redoak.servlet.chatserver.model.User;
+import academy.redoak.servlet.chatserver.service.AuthService;
+import academy.redoak.servlet.chatserver.service.ChatRoomService;
+import academy.redoak.servlet.chatserver.service.MessageDispatcher;
+import academy.redoak.servlet.chatserver.service.OverflowPolicy;
+import academy.redoak.servlet.chatserver.service.Subscriber;
+import academy.redoak.servlet.chatserver.service.Subscription;
+import academy.redoak.servlet.chatserver.util.Mapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import javax.websocket.CloseReason;
+import javax.websocket.EndpointConfig;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WebSocket endpoint for subscribing to chat rooms and sending messages over a single connection. Uses the same
+ * {@link ChatRoomService} as the REST API, so messages are shared between both.
+ * <br/>
+ * <b>
+ *     Requires Authentication! Authenticated user must be declared by setting the "auth" header value (or query
+ *     parameter) of the handshake request to the id of the user.
+ * </b>
+ * <br/>
+ * Clients send commands conforming to the {@link SocketCommand} schema:
+ * <code>
+ *     {"action": "subscribe", "room": "3a285f0d-3541-4c30-830d-1b4bbad98672", "since": 41}
+ *     {"action": "unsubscribe", "room": "3a285f0d-3541-4c30-830d-1b4bbad98672"}
+ *     {"action": "send", "room": "3a285f0d-3541-4c30-830d-1b4bbad98672", "message": "Moin"}
+ * </code>
+ * On subscribing, the messages after the optional <code>since</code> sequence are replayed. The
+ * <code>next_cursor</code> of the <code>subscribed</code> event is the sequence the subscription starts after. If
+ * the replay would exceed the queue, a <code>resync</code> event follows instead. A <code>since</code> after the
+ * last message of the room is answered by an <code>error</code> event. Afterwards, every
+ * message posted to the room is pushed to the client in the {@link SocketEvent} schema:
+ * <code>
+ *     {
+ *         "status": "OK",
+ *         "type": "message",
+ *         "room": "3a285f0d-3541-4c30-830d-1b4bbad98672",
+ *         "message": {
+ *             "sequence": 42,
+ *             "timestamp": 1586962337000,
+ *             "username": "Benjamin",
+ *             "message": "Moin"
+ *         }
+ *     }
+ * </code>
+ * Commands are acknowledged by events of type <code>subscribed</code>, <code>unsubscribed</code> and
+ * <code>sent</code>. Failed commands are answered by an event of type <code>error</code> with status
+ * <code>FAIL</code> and an <code>error_message</code>.
+ * <br/>
+ * Subscriptions are served by the {@link MessageDispatcher} with a queue of {@value #QUEUE_CAPACITY} messages
+ * (which is also the maximum replay). If a client does not keep up, its queued messages are dropped and an event
+ * of type <code>resync</code> is sent, whose <code>next_cursor</code> is the sequence of the last message sent
+ * before. The client has to read the room from there, e.g. by subscribing again.
+ */
+@ServerEndpoint(value = "/ws", configurator = AuthConfigurator.class)
+public class ChatSocket {
+
+    private static final int QUEUE_CAPACITY = 1000;
+
+    private AuthService authService = AuthService.getInstance();
+    private ChatRoomService service = ChatRoomService.getInstance();
+    private MessageDispatcher dispatcher = MessageDispatcher.getInstance();
+
+    private Session session;
+    private User user;
+    private Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private Queue<Outgoing> outbox = new ConcurrentLinkedQueue<>();
+    private AtomicBoolean sending = new AtomicBoolean();
+    private AtomicInteger flushing = new AtomicInteger();
+
+    @OnOpen
+    public void onOpen(Session session, EndpointConfig config) throws IOException {
+        this.session = session;
+        // the session's own copy of the properties set for its handshake
+        Object auth = session.getUserProperties().get(AuthConfigurator.AUTH_PROPERTY);
+        Optional<User> authorizedUser = auth != null ? authService.getUser(auth.toString()) : Optional.empty();
+        if (!authorizedUser.isPresent()) {
+            session.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "Unauthorized"));
+            return;
+        }
+        this.user = authorizedUser.get();
+    }
+
+    @OnMessage
+    public void onMessage(String text) throws IOException {
+        SocketCommand command;
+        try {
+            command = Mapper.getAsObject(text, SocketCommand.class);
+        } catch (JsonProcessingException e) {
+            sendError(null, "Your message s not valid: " + e.getMessage());
+            return;
+        }
+        if (command.getAction() == null || command.getRoom() == null) {
+            sendError(command.getRoom(), "Missing action or room");
+            return;
+        }
+        Optional<ChatRoom> chatRoom = service.getChatRoom(command.getRoom());
+        if (!chatRoom.isPresent()) {
+            sendError(command.getRoom(), "ChatRoom not found");
+            return;
+        }
+        switch (command.getAction()) {
+            case "subscribe":
+                subscribe(chatRoom.get(), command.getSince());
+                break;
+            case "unsubscribe":
+                unsubscribe(chatRoom.get());
+                break;
+            case "send":
+                sendMessage(chatRoom.get(), command.getMessage());
+                break;
+            default:
+                sendError(command.getRoom(), "Unknown action " + command.getAction());
+        }
+    }
+
+    @OnClose
+    public void onClose() {
+        subscriptions.values().forEach(Subscription::cancel);
+        subscriptions.clear();
+    }
+
+    @OnError
+    public void onError(Throwable throwable) {
+        onClose();
+    }
+
+    private void subscribe(ChatRoom chatRoom, Long since) throws IOException {
+        long last = chatRoom.getMessageLog().lastSequence();
+        if (since != null && since > last) {
+            sendError(chatRoom.getId(), "Sequence " + since + " is after the last message " + last);
+            return;
+        }
+        Subscription previous = subscriptions.remove(chatRoom.getId());
+        if (previous != null) {
+            previous.cancel();
+        }
+        // the subscription starts right there, so no message posted meanwhile is skipped
+        long start = since != null ? since : last;
+        SocketEvent event = event("subscribed", chatRoom);
+        event.setNextCursor(start);
+        send(event);
+        subscriptions.put(chatRoom.getId(),
+                dispatcher.subscribe(chatRoom, new RoomSubscriber(), start, QUEUE_CAPACITY, OverflowPolicy.RESYNC));
+    }
+
+    private void unsubscribe(ChatRoom chatRoom) throws IOException {
+        Subscription subscription = subscriptions.remove(chatRoom.getId());
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        send(event("unsubscribed", chatRoom));
+    }
+
+    private void sendMessage(ChatRoom chatRoom, String text) throws IOException {
+        if (text == null || text.isEmpty()) {
+            sendError(chatRoom.getId(), "Missing message");
+            return;
+        }
+        Message message = service.postMessage(chatRoom, user, text);
+        SocketEvent event = event("sent", chatRoom);
+        event.setMessage(MessageJson.of(message));
+        event.getMessage().setId(chatRoom.getId() + ":" + message.getSequence());
+        send(event);
+    }
+
+    private SocketEvent event(String type, ChatRoom chatRoom) {
+        SocketEvent event = new SocketEvent();
+        event.setStatus(Status.OK);
+        event.setType(type);
+        event.setRoom(chatRoom.getId());
+        return event;
+    }
+
+    private void sendError(String room, String errorMessage) throws IOException {
+        SocketEvent event = new SocketEvent();
+        event.setType("error");
+        event.setRoom(room);
+        event.setErrorMessage(errorMessage);
+        send(event);
+    }
+
+    private void send(SocketEvent event) throws IOException {
+        send(event, null);
+    }
+
+    /**
+     * Queues given event for being sent to the client. Events are sent one after another by the asynchronous
+     * {@link javax.websocket.RemoteEndpoint.Async}, which does not allow concurrent sends.
+     *
+     * @param event The event to send.
+     * @param onSent Called after the event was sent, may be <code>null</code>.
+     */
+    private void send(SocketEvent event, Runnable onSent) throws IOException {
+        outbox.add(new Outgoing(Mapper.getAsJson(event), onSent));
+        flush();
+    }
+
+    /**
+     * Starts sending the next queued event, if none is in flight. Sends may complete synchronously and call
+     * this method again, so only the outermost call works through the queue instead of recursing.
+     */
+    private void flush() {
+        if (flushing.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            if (!sending.get() && !outbox.isEmpty()) {
+                Outgoing next = outbox.poll();
+                if (!session.isOpen()) {
+                    outbox.clear();
+                } else {
+                    sending.set(true);
+                    session.getAsyncRemote().sendText(next.text, result -> {
+                        sending.set(false);
+                        if (result.isOK()) {
+                            if (next.onSent != null) {
+                                next.onSent.run();
+                            }
+                            flush();
+                        } else {
+                            onClose();
+                        }
+                    });
+                }
+            }
+        } while (flushing.decrementAndGet() != 0);
+    }
+
+    private static final class Outgoing {
+
+        private final String text;
+        private final Runnable onSent;
+
+        Outgoing(String text, Runnable onSent) {
+            this.text = text;
+            this.onSent = onSent;
+        }
+    }
+
+    /**
+     * Receives the messages of a subscribed room from the {@link MessageDispatcher}. The dispatcher is told to
+     * deliver further messages only after the current ones are sent, so the messages for a slow client pile up
+     * in its bounded queue.
+     */
+    private final class RoomSubscriber implements Subscriber {
+
+        @Override
+        public void deliver(ChatRoom chatRoom, List<Message> messages, Runnable done) {
+            try {
+                for (int i = 0; i < messages.size(); i++) {
+                    SocketEvent event = event("message", chatRoom);
+                    event.setMessage(MessageJson.of(messages.get(i)));
+                    send(event, i == messages.size() - 1 ? done : null);
+                }
+            } catch (IOException e) {
+                onClose();
+            }
+        }
+
+        @Override
+        public void resync(ChatRoom chatRoom, long lastDelivered, Runnable done) {
+            try {
+                SocketEvent event = event("resync", chatRoom);
+                event.setNextCursor(lastDelivered);
+                send(event, done);
+            } catch (IOException e) {
+                onClose();
+            }
+        }
+
+        @Override
+        public void disconnect(ChatRoom chatRoom) {
+            subscriptions.remove(chatRoom.getId());
+        }
+    }
+}
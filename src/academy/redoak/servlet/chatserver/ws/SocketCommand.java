@@ -0,0 +1,71 @@
+package academy.redoak.servlet.chatserver.ws;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+/**
+ * POJO for Jackson mapping representing a command sent by a client to the {@link ChatSocket}.
+ */
+public class SocketCommand {
+
+    @JsonProperty
+    private String action;
+
+    @JsonProperty
+    private String room;
+
+    @JsonProperty
+    private Long since;
+
+    @JsonProperty
+    private String message;
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public void setRoom(String room) {
+        this.room = room;
+    }
+
+    public Long getSince() {
+        return since;
+    }
+
+    public void setSince(Long since) {
+        this.since = since;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SocketCommand that = (SocketCommand) o;
+        return Objects.equals(action, that.action) &&
+                Objects.equals(room, that.room) &&
+                Objects.equals(since, that.since) &&
+                Objects.equals(message, that.message);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(action, room, since, message);
+    }
+}
@@ -0,0 +1,75 @@
+package academy.redoak.servlet.chatserver.ws;
+
+import academy.redoak.servlet.chatserver.http.Response;
+import academy.redoak.servlet.chatserver.http.chat.MessageJson;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+/**
+ * POJO for frames sent by the {@link ChatSocket} to a client. Consists of basic properties from {@link Response}
+ * class and has additionally the type of the event, the room it belongs to and the message, if any.
+ */
+public class SocketEvent extends Response {
+
+    @JsonProperty
+    private String type;
+
+    @JsonProperty
+    private String room;
+
+    @JsonProperty
+    private MessageJson message;
+
+    @JsonProperty("next_cursor")
+    private Long nextCursor;
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public void setRoom(String room) {
+        this.room = room;
+    }
+
+    public MessageJson getMessage() {
+        return message;
+    }
+
+    public void setMessage(MessageJson message) {
+        this.message = message;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(Long nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        if (!super.equals(o)) return false;
+        SocketEvent that = (SocketEvent) o;
+        return Objects.equals(type, that.type) &&
+                Objects.equals(room, that.room) &&
+                Objects.equals(message, that.message) &&
+                Objects.equals(nextCursor, that.nextCursor);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), type, room, message, nextCursor);
+    }
+}